@@ -4,66 +4,185 @@ import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Implementation of {@link ParallelMapper} interface for parallel mapping.
+ * <p>
+ * Consecutive elements are grouped into range tasks. The range is sized so a task runs for about
+ * {@link #TARGET_TASK_NANOS}, judging by the per-element time measured on previous ranges of the same mapping,
+ * but every worker still gets several tasks of a mapping to balance the load.
+ * The first ranges of a mapping hold a single element to measure it.
+ * <p>
+ * Every worker has its own lock-free deque of slices, which are contiguous index spans of mappings.
+ * A mapping is cut into one slice per worker. A worker takes the slice from the head of its own deque,
+ * claims the next range of it and puts the slice back to the tail if some indices are left,
+ * so concurrent mappings share the worker equally and a small mapping isn't stuck behind a large one.
+ * When its deque is empty, a worker steals the upper half of a slice from the others.
+ * Idle workers park until new mappings are submitted or some worker requeues a slice that still has work.
+ * <p>
+ * Besides blocking {@link #map}, mappings may be started with {@link #mapAsync} and {@link #mapStreaming},
+ * which return immediately. Their futures are completed through a separate executor,
+ * {@link ForkJoinPool#commonPool()} unless given explicitly, so dependent stages never run on the workers
+ * and may map again. Closing the mapper fails all unfinished mappings.
+ * <p>
+ * If the function throws, the mapping fails with the first exception and its unclaimed ranges are cancelled,
+ * as they are when the returned future is cancelled. Workers survive failures of the mapped function.
  */
 @SuppressWarnings("unused")
 public class ParallelMapperImpl implements ParallelMapper {
-    private final List<Thread> threadList;
-    private final Queue<Process> queue;
+    private static final long TARGET_TASK_NANOS = 50_000;
+    private static final int TASKS_PER_WORKER = 4;
+
+    private final List<Worker> workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final AtomicInteger sleepers = new AtomicInteger();
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
 
 
     /**
      * Maps function {@code f} over specified {@code args}.
      * Mapping for each element performed in parallel.
+     * The first exception thrown by {@code f} cancels the rest of the mapping and is rethrown.
      *
-     * @throws InterruptedException if calling thread was interrupted
+     * @throws InterruptedException if calling thread was interrupted, the mapping is cancelled then
      */
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args)
             throws InterruptedException {
+        // The caller just waits for the result, so there is nothing to hand over to another thread
+        CompletableFuture<List<R>> future = this.<T, R>mapAsync(f, args, Runnable::run);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
 
+    /**
+     * Starts mapping function {@code f} over specified {@code args} without waiting for it.
+     *
+     * @return future completed through {@link ForkJoinPool#commonPool()} with the results in order of {@code args}
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return mapAsync(f, args, ForkJoinPool.commonPool());
+    }
 
+    /**
+     * Starts mapping function {@code f} over specified {@code args} without waiting for it.
+     *
+     * @return future completed through {@code executor} with the results in order of {@code args}
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                     Executor executor) {
         List<R> result = new ArrayList<>(Collections.nCopies(args.size(), null));
-        final IntShell counter = new IntShell(args.size());
+        CompletableFuture<List<R>> future = new CompletableFuture<>();
+        submit(args.size(), i -> result.set(i, f.apply(args.get(i))), future, () -> future.complete(result), executor);
+        return future;
+    }
 
-        for (int i = 0; i < args.size(); ++i) {
-            final int finalI = i;
-            Process process = new Process(
-                    () -> result.set(finalI, f.apply(args.get(finalI))), counter);
+    /**
+     * Starts mapping function {@code f} over specified {@code args} and passes every result with its index
+     * to {@code consumer} as soon as it is computed. Consumer is called concurrently from worker threads.
+     *
+     * @return future completed through {@link ForkJoinPool#commonPool()} after all results were consumed
+     */
+    public <T, R> CompletableFuture<Void> mapStreaming(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       ObjIntConsumer<? super R> consumer) {
+        return mapStreaming(f, args, consumer, ForkJoinPool.commonPool());
+    }
 
-            synchronized (queue) {
-                queue.add(process);
-                queue.notifyAll();
-            }
+    /**
+     * Starts mapping function {@code f} over specified {@code args} and passes every result with its index
+     * to {@code consumer} as soon as it is computed. Consumer is called concurrently from worker threads.
+     *
+     * @return future completed through {@code executor} after all results were consumed
+     */
+    public <T, R> CompletableFuture<Void> mapStreaming(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       ObjIntConsumer<? super R> consumer, Executor executor) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        submit(args.size(), i -> consumer.accept(f.apply(args.get(i)), i), future, () -> future.complete(null),
+                executor);
+        return future;
+    }
+
+    private void submit(int size, Task task, CompletableFuture<?> future, Runnable onComplete, Executor executor) {
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Mapper is closed"));
+            return;
+        }
+        if (size == 0) {
+            onComplete.run();
+            return;
         }
-        //
-        synchronized (counter) {
-            while (counter.tasksCounter > 0) {
-                counter.wait();
+        long balance = (long) workers.size() * TASKS_PER_WORKER;
+        Call call = new Call(task, size, (int) ((size + balance - 1) / balance), future, onComplete, executor);
+        calls.add(call);
+        future.whenComplete((result, e) -> {
+            calls.remove(call);
+            if (e != null) {
+                call.cancel();
             }
+        });
+        // Either close() sees the call, or the call sees that the mapper is closed
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Mapper is closed"));
+            return;
         }
 
-        return result;
+        int slices = Math.min(workers.size(), size);
+        int first = Math.floorMod(nextWorker.getAndIncrement(), workers.size());
+        for (int i = 0; i < slices; i++) {
+            Slice slice = new Slice(call, (int) ((long) size * i / slices), (int) ((long) size * (i + 1) / slices));
+            workers.get((first + i) % workers.size()).deque.addLast(slice);
+        }
+        wakeUp(slices);
+    }
+
+    private static RuntimeException unchecked(Throwable e) {
+        if (e instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        return new RuntimeException(e);
     }
 
-    /** Stops all threads. All unfinished mappings are left in undefined state. */
+    /** Stops all threads. All unfinished mappings fail with {@link IllegalStateException}. */
     @Override
     public void close() {
-        threadList.forEach(Thread::interrupt);
+        closed = true;
+        workers.forEach(worker -> worker.thread.interrupt());
 
-        threadList.forEach(thread -> {
+        workers.forEach(worker -> {
                     try {
-                        thread.join();
+                        worker.thread.join();
                     } catch (InterruptedException ignored) {
                     }
                 }
         );
+        IllegalStateException e = new IllegalStateException("Mapper is closed");
+        calls.forEach(call -> call.future.completeExceptionally(e));
     }
 
     /**
@@ -71,65 +190,237 @@ public class ParallelMapperImpl implements ParallelMapper {
      * @param numberOfThreads number of required threads to create
      */
     public ParallelMapperImpl(int numberOfThreads) {
-        threadList = new ArrayList<>();
-        queue = new LinkedBlockingDeque<>();
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Number of threads should be positive");
+        }
+        workers = new ArrayList<>();
 
         for (int i = 0; i < numberOfThreads; i++) {
-            threadList.add(new Thread(runProcess()));
-
-            threadList.get(i).start();
+            workers.add(new Worker(i));
         }
+        workers.forEach(worker -> worker.thread.start());
 
     }
-//
-    private Runnable runProcess() {
-        return () -> {
-            try {
-                while (!Thread.interrupted()) {
-                    Process process;
-                    synchronized (queue) {
-                        while (queue.isEmpty()) {
-                            queue.wait();
-                        }
 
-                        process = queue.poll();
+    /** Unparks at most {@code count} sleeping workers. */
+    private void wakeUp(int count) {
+        for (int i = 0; i < workers.size() && count > 0 && sleepers.get() > 0; i++) {
+            Worker worker = workers.get(i);
+            if (worker.sleeping.compareAndSet(true, false)) {
+                sleepers.decrementAndGet();
+                LockSupport.unpark(worker.thread);
+                count--;
+            }
+        }
+    }
 
+    private final class Worker implements Runnable {
+        private final int index;
+        private final Deque<Slice> deque = new ConcurrentLinkedDeque<>();
+        private final Thread thread = new Thread(this);
+        private final AtomicBoolean sleeping = new AtomicBoolean();
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.interrupted()) {
+                Slice slice = next();
+                if (slice == null) {
+                    // Announce sleeping before rechecking the deques, otherwise a wakeUp may be missed
+                    sleeping.set(true);
+                    sleepers.incrementAndGet();
+                    slice = next();
+                    if (slice == null) {
+                        LockSupport.park(this);
+                    }
+                    if (sleeping.getAndSet(false)) {
+                        sleepers.decrementAndGet();
+                    }
+                    if (slice == null) {
+                        continue;
                     }
+                }
 
-                    process.runnable.run();
+                Call call = slice.call;
+                long range = slice.claim(call.chunkSize());
+                if (range < 0) {
+                    continue;
+                }
+                int from = Slice.from(range);
+                int to = Slice.to(range);
+                if (slice.remaining() > 0) {
+                    deque.addLast(slice);
+                    // Some worker may have fallen asleep while the slice was out of the deque
+                    if (sleepers.get() > 0) {
+                        wakeUp(1);
+                    }
+                }
+                long start = System.nanoTime();
+                try {
+                    for (int i = from; i < to; i++) {
+                        call.task.apply(i);
+                    }
+                } catch (RuntimeException | Error e) {
+                    call.fail(e);
+                    continue;
+                }
+                call.measured(System.nanoTime() - start, to - from);
+                call.done(to - from);
+            }
+            Thread.currentThread().interrupt();
+        }
 
-                    synchronized (process.tasksCounter) {
-                        process.tasksCounter.tasksCounter--;
-                        if (process.tasksCounter.tasksCounter < 1) {
-                            process.tasksCounter.notify();
-                        }
+        private Slice next() {
+            Slice slice = deque.pollFirst();
+            for (int i = 1; slice == null && i < workers.size(); i++) {
+                for (Slice victim : workers.get((index + i) % workers.size()).deque) {
+                    slice = victim.split();
+                    if (slice != null) {
+                        break;
                     }
                 }
-            } catch (InterruptedException ignored) {
-            } finally {
-                Thread.currentThread().interrupt();
             }
-        };
+            return slice;
+        }
     }
 
 
-    private static class Process {
-        Runnable runnable;
-        private final IntShell tasksCounter;
+    private interface Task {
+        void apply(int index);
+    }
+
+    /**
+     * One mapping: applies {@code task} to indices below {@code size} in ranges of at most {@code maxChunk},
+     * counts unfinished elements and runs {@code onComplete} after the last one.
+     * Failures complete {@code future} exceptionally. Both are done through {@code executor}.
+     */
+    private static class Call {
+        private final Task task;
+        private final int size;
+        private final int maxChunk;
+        private volatile boolean cancelled;
+        private final AtomicInteger tasksCounter;
+        private final CompletableFuture<?> future;
+        private final Runnable onComplete;
+        private final Executor executor;
+        /** Smoothed time of mapping one element, {@code -1} until the first range is measured. */
+        private volatile long elementNanos = -1;
+
+        Call(Task task, int size, int maxChunk, CompletableFuture<?> future, Runnable onComplete,
+             Executor executor) {
+            this.task = task;
+            this.size = size;
+            this.maxChunk = maxChunk;
+            tasksCounter = new AtomicInteger(size);
+            this.future = future;
+            this.onComplete = onComplete;
+            this.executor = executor;
+        }
+
+        /** Prevents unclaimed ranges from being run, ranges already running are finished. */
+        void cancel() {
+            cancelled = true;
+        }
+
+        int chunkSize() {
+            long perElement = elementNanos;
+            long byCost = perElement < 0 ? 1 : TARGET_TASK_NANOS / Math.max(1, perElement);
+            return (int) Math.max(1, Math.min(byCost, maxChunk));
+        }
+
+        void measured(long nanos, int elements) {
+            long sample = nanos / elements;
+            long previous = elementNanos;
+            // Racy update is fine, this is only an estimate
+            elementNanos = previous < 0 ? sample : (7 * previous + sample) / 8;
+        }
 
-        Process(Runnable runnable, IntShell tasks) {
-            this.runnable = runnable;
-            tasksCounter = tasks;
+        void done(int elements) {
+            if (tasksCounter.addAndGet(-elements) == 0) {
+                execute(onComplete);
+            }
         }
+
+        /** Fails the mapping with {@code e}, unclaimed ranges are cancelled at once. */
+        void fail(Throwable e) {
+            cancel();
+            execute(() -> future.completeExceptionally(e));
+        }
+
+        private void execute(Runnable completion) {
+            try {
+                executor.execute(completion);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
     }
 
-    private static class IntShell {
-        private int tasksCounter;
+    /**
+     * Unclaimed indices of a mapping from {@code from} inclusive to {@code to} exclusive,
+     * packed into one {@code long} so the owner and thieves may shrink them from both ends.
+     */
+    private static class Slice {
+        private final Call call;
+        private final AtomicLong range;
+
+        Slice(Call call, int from, int to) {
+            this.call = call;
+            range = new AtomicLong(pack(from, to));
+        }
 
-        IntShell(int tasks) {
-            tasksCounter = tasks;
+        private static long pack(int from, int to) {
+            return (long) from << 32 | to;
         }
 
+        static int from(long range) {
+            return (int) (range >>> 32);
+        }
+
+        static int to(long range) {
+            return (int) range;
+        }
+
+        int remaining() {
+            long current = range.get();
+            return to(current) - from(current);
+        }
+
+        /** Claims at most {@code chunk} first indices, returns them packed or {@code -1} if none are left. */
+        long claim(int chunk) {
+            while (true) {
+                long current = range.get();
+                int from = from(current);
+                int to = to(current);
+                if (from >= to || call.cancelled) {
+                    return -1;
+                }
+                int end = (int) Math.min(to, (long) from + chunk);
+                if (range.compareAndSet(current, pack(end, to))) {
+                    return pack(from, end);
+                }
+            }
+        }
+
+        /** Takes the upper half of unclaimed indices, returns them as a new slice or {@code null} if none are left. */
+        Slice split() {
+            while (true) {
+                long current = range.get();
+                int from = from(current);
+                int to = to(current);
+                if (from >= to || call.cancelled) {
+                    return null;
+                }
+                int middle = from + (to - from) / 2;
+                if (range.compareAndSet(current, pack(from, middle))) {
+                    return new Slice(call, middle, to);
+                }
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+package info.kgeorgiy.ja.gelmetdinov.concurrent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelMapperTest {
+    private static List<Integer> range(int size) {
+        return IntStream.range(0, size).boxed().collect(Collectors.toList());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void test01_singleMapUsesSeveralWorkers() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(8)) {
+            for (int run = 0; run < 5; run++) {
+                // Let the workers park, so the mapping has to wake them up
+                sleep(50);
+                Set<Thread> threads = ConcurrentHashMap.newKeySet();
+                List<Integer> result = mapper.map(x -> {
+                    threads.add(Thread.currentThread());
+                    sleep(1);
+                    return x * 2;
+                }, range(800));
+
+                Assert.assertEquals(range(800).stream().map(x -> x * 2).collect(Collectors.toList()), result);
+                Assert.assertTrue("only " + threads.size() + " worker took part", threads.size() > 1);
+            }
+        }
+    }
+
+    @Test
+    public void test02_smallMapIsNotStuckBehindLargeOne() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(2)) {
+            CompletableFuture<List<Integer>> large = mapper.mapAsync(x -> {
+                sleep(1);
+                return x;
+            }, range(4000));
+            sleep(20);
+
+            long start = System.nanoTime();
+            List<Integer> small = mapper.map(x -> {
+                sleep(1);
+                return x;
+            }, range(10));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            Assert.assertEquals(range(10), small);
+            Assert.assertFalse("small map waited for the large one", large.isDone());
+            Assert.assertTrue("small map took " + millis + " ms", millis < 500);
+            large.cancel(false);
+        }
+    }
+
+    @Test
+    public void test03_dependentStageMayMapAgain() throws Exception {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(1)) {
+            List<Integer> result = mapper.mapAsync(x -> x + 1, range(10))
+                    .thenApply(list -> {
+                        try {
+                            return mapper.map(x -> x * 2, list);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    })
+                    .get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(range(10).stream().map(x -> (x + 1) * 2).collect(Collectors.toList()), result);
+        }
+    }
+
+    @Test
+    public void test04_closeFailsUnfinishedMappings() throws InterruptedException, TimeoutException {
+        CompletableFuture<List<Integer>> future;
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(1)) {
+            future = mapper.mapAsync(x -> {
+                sleep(10);
+                return x;
+            }, range(1000));
+            sleep(20);
+        }
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("unfinished mapping completed normally");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of a hello server: packets and bytes received and sent, receive and send errors,
+ * requests dropped or rejected on overload, depth of the server queue and histogram of per-request processing time.
+ * <p>
+ * Processing times are recorded to a {@link LatencyHistogram} of the sending thread, so workers don't share
+ * cache lines, and the histograms are merged on read.
+ * <p>
+ * Can be registered as an MBean and reported periodically to {@code System.err}.
+ */
+public class HelloServerMetrics implements HelloServerMetricsMBean {
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder receiveErrors = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder busyReplies = new LongAdder();
+    private final Queue<LatencyHistogram> processing = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<LatencyHistogram> threadProcessing = ThreadLocal.withInitial(() -> {
+        LatencyHistogram histogram = new LatencyHistogram();
+        processing.add(histogram);
+        return histogram;
+    });
+    private final LongSupplier queueDepth;
+    private ObjectName name;
+    private ScheduledExecutorService reporter;
+
+    HelloServerMetrics(LongSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void received(int bytes) {
+        packetsReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    void sent(int bytes, long processingNanos) {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+        LatencyHistogram histogram = threadProcessing.get();
+        // Uncontended but for rare reads
+        synchronized (histogram) {
+            histogram.record(processingNanos);
+        }
+    }
+
+    void receiveError() {
+        receiveErrors.increment();
+    }
+
+    void sendError() {
+        sendErrors.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void busyReply() {
+        busyReplies.increment();
+    }
+
+    /** Registers metrics in the platform MBean server under {@code type=<server>,port=<port>}. */
+    void register(String server, int port) {
+        try {
+            name = new ObjectName(getClass().getPackageName() + ":type=" + server + ",port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Error: can't register metrics MBean " + e.getMessage());
+            name = null;
+        }
+    }
+
+    /** Starts reporting metrics to {@code System.err} every {@code seconds} seconds. */
+    void startReporting(int seconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hello-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.err.println(this), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /** Stops reporting and unregisters MBean. */
+    void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException ignored) {
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getReceiveErrors() {
+        return receiveErrors.sum();
+    }
+
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getBusyReplies() {
+        return busyReplies.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    @Override
+    public long getProcessingNanosP50() {
+        return processing().percentile(50);
+    }
+
+    @Override
+    public long getProcessingNanosP99() {
+        return processing().percentile(99);
+    }
+
+    @Override
+    public long getProcessingNanosMax() {
+        return processing().max();
+    }
+
+    @Override
+    public String toString() {
+        LatencyHistogram processing = processing();
+        return String.format(Locale.ROOT,
+                "Metrics: received %d (%d bytes), sent %d (%d bytes), errors receive %d send %d, "
+                        + "dropped %d, busy %d, queue %d, processing p50 %d ns, p99 %d ns, max %d ns",
+                getPacketsReceived(), getBytesReceived(), getPacketsSent(), getBytesSent(),
+                getReceiveErrors(), getSendErrors(), getDropped(), getBusyReplies(), getQueueDepth(),
+                processing.percentile(50), processing.percentile(99), processing.max());
+    }
+
+    /** Returns processing times recorded by all threads. */
+    private LatencyHistogram processing() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram histogram : processing) {
+            synchronized (histogram) {
+                merged.add(histogram);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,30 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+/**
+ * JMX view of {@link HelloServerMetrics}.
+ */
+public interface HelloServerMetricsMBean {
+    long getPacketsReceived();
+
+    long getPacketsSent();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getReceiveErrors();
+
+    long getSendErrors();
+
+    long getDropped();
+
+    long getBusyReplies();
+
+    long getQueueDepth();
+
+    long getProcessingNanosP50();
+
+    long getProcessingNanosP99();
+
+    long getProcessingNanosMax();
+}
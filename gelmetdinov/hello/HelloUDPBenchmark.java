@@ -0,0 +1,257 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for hello servers.
+ * <p>
+ * Requests {@code <prefix><number>} are sent at the fixed rate regardless of responses, so a slow server
+ * can't slow the load down. Latency is measured from the moment the request was scheduled
+ * to be sent until its first correct response and includes retransmissions.
+ * A request is retransmitted after {@link #TIMEOUT} and considered lost after {@link #ATTEMPTS} attempts.
+ */
+public class HelloUDPBenchmark {
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int ATTEMPTS = 3;
+
+    private final byte[] prefix;
+    private final int total;
+    private final double interval;
+
+    private final long[] sentAt;
+    private final byte[] attempts;
+    private final boolean[] done;
+    // All timeouts are equal, so deadlines in the queue are ascending
+    private final int[] pending;
+    private int pendingHead;
+    private int pendingSize;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long retransmissions;
+    private long lost;
+    private long elapsed;
+
+    private HelloUDPBenchmark(String prefix, int rate, int seconds) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        long requests = (long) rate * seconds;
+        if (requests > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many requests: " + requests);
+        }
+        total = (int) requests;
+        interval = (double) TimeUnit.SECONDS.toNanos(1) / rate;
+        sentAt = new long[total];
+        attempts = new byte[total];
+        done = new boolean[total];
+        pending = new int[total];
+    }
+
+    /**
+     * Usage: {@code host port prefix rate seconds [--local]}.
+     * With {@code --local} {@link HelloUDPServer} is started on {@code port} in the same process.
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length < 5 || args.length > 6 || args.length == 6 && !"--local".equals(args[5])) {
+            System.err.println("Error: Illegal arguments format.");
+            return;
+        }
+        String host = args[0];
+        int port;
+        int rate;
+        int seconds;
+        try {
+            port = Integer.parseInt(args[1]);
+            rate = Integer.parseInt(args[3]);
+            seconds = Integer.parseInt(args[4]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (rate < 1 || seconds < 1) {
+            System.err.println("Error: Invalid arguments: rate and duration should be positive");
+            return;
+        }
+
+        HelloUDPBenchmark benchmark;
+        try {
+            benchmark = new HelloUDPBenchmark(args[2], rate, seconds);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (args.length == 6) {
+            try (HelloServer server = new HelloUDPServer()) {
+                server.start(port, Runtime.getRuntime().availableProcessors());
+                benchmark.run(host, port);
+            }
+        } else {
+            benchmark.run(host, port);
+        }
+    }
+
+    private void run(String host, int port) {
+        try (DatagramChannel channel = DatagramChannel.open(); Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(host, port));
+            channel.register(selector, SelectionKey.OP_READ);
+            loop(channel, selector);
+        } catch (IOException e) {
+            System.err.println("Error: DatagramChannel can't be opened " + e.getMessage());
+            return;
+        }
+        report();
+    }
+
+    private void loop(DatagramChannel channel, Selector selector) throws IOException {
+        ByteBuffer request = ByteBuffer.allocateDirect(prefix.length + 10);
+        ByteBuffer response = ByteBuffer.allocateDirect(Util.MAX_DATAGRAM_SIZE);
+        long start = System.nanoTime();
+        int next = 0;
+        while (true) {
+            receive(channel, response, start);
+            long now = System.nanoTime();
+            for (; next < total && scheduled(start, next) <= now; next++) {
+                send(channel, request, next, now);
+            }
+            while (pendingSize > 0) {
+                int id = pending[pendingHead];
+                if (!done[id] && sentAt[id] + TIMEOUT > now) {
+                    break;
+                }
+                pendingHead = (pendingHead + 1) % total;
+                pendingSize--;
+                if (done[id]) {
+                    continue;
+                }
+                if (attempts[id] < ATTEMPTS) {
+                    retransmissions++;
+                    send(channel, request, id, now);
+                } else {
+                    // A late reply to a lost request is ignored, so responses and losses never overlap
+                    done[id] = true;
+                    lost++;
+                }
+            }
+            if (next == total && pendingSize == 0) {
+                break;
+            }
+
+            long deadline = next < total ? scheduled(start, next) : Long.MAX_VALUE;
+            if (pendingSize > 0) {
+                deadline = Math.min(deadline, sentAt[pending[pendingHead]] + TIMEOUT);
+            }
+            long wait = deadline - System.nanoTime();
+            if (wait >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+                selector.selectedKeys().clear();
+            } else if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private long scheduled(long start, int id) {
+        return start + (long) (id * interval);
+    }
+
+    private void send(DatagramChannel channel, ByteBuffer request, int id, long now) {
+        request.clear();
+        request.put(prefix);
+        putDecimal(request, id);
+        request.flip();
+        try {
+            channel.write(request);
+        } catch (IOException ignored) {
+            // The request is resent on timeout
+        }
+        attempts[id]++;
+        sentAt[id] = now;
+        pending[(pendingHead + pendingSize) % total] = id;
+        pendingSize++;
+    }
+
+    private void receive(DatagramChannel channel, ByteBuffer response, long start) {
+        while (true) {
+            response.clear();
+            try {
+                if (channel.receive(response) == null) {
+                    return;
+                }
+            } catch (IOException e) {
+                // E.g. ICMP port unreachable while the server is not up yet
+                return;
+            }
+            long now = System.nanoTime();
+            response.flip();
+            int id = parseId(response);
+            if (id >= 0 && id < total && !done[id]) {
+                done[id] = true;
+                histogram.record(now - scheduled(start, id));
+                elapsed = now - start;
+            }
+        }
+    }
+
+    /** Returns number of request the response is for, or {@code -1} if response is malformed. */
+    private int parseId(ByteBuffer response) {
+        if (response.remaining() <= Util.RESPONSE_PREFIX.length + prefix.length) {
+            return -1;
+        }
+        for (byte b : Util.RESPONSE_PREFIX) {
+            if (response.get() != b) {
+                return -1;
+            }
+        }
+        for (byte b : prefix) {
+            if (response.get() != b) {
+                return -1;
+            }
+        }
+        long id = 0;
+        while (response.hasRemaining()) {
+            int digit = response.get() - '0';
+            if (digit < 0 || digit > 9 || id > Integer.MAX_VALUE) {
+                return -1;
+            }
+            id = id * 10 + digit;
+        }
+        return id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int digits = 1;
+        for (int power = 10; digits < 10 && power <= value; power *= 10) {
+            digits++;
+        }
+        int position = buffer.position() + digits;
+        for (int i = position - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(position);
+    }
+
+    private void report() {
+        long received = histogram.count();
+        double seconds = elapsed / 1e9;
+        System.out.printf("Requests: %d, responses: %d, throughput: %.1f responses/s%n",
+                total, received, seconds > 0 ? received / seconds : 0);
+        System.out.printf("Latency, ms: p50 %.3f, p99 %.3f, p999 %.3f, max %.3f, mean %.3f%n",
+                millis(histogram.percentile(50)), millis(histogram.percentile(99)),
+                millis(histogram.percentile(99.9)), millis(histogram.max()), histogram.mean() / 1e6);
+        System.out.printf("Retransmissions: %d, lost: %d (%.3f%%)%n", retransmissions, lost, 100.0 * lost / total);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
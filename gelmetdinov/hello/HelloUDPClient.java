@@ -5,16 +5,39 @@ import info.kgeorgiy.java.advanced.hello.HelloClient;
 import java.io.IOException;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class HelloUDPClient implements HelloClient {
-    //
-    private static final int SO_TIMEOUT = 500;
+    private final boolean virtualThreads;
+    private final Queue<RttEstimator> estimators = new ConcurrentLinkedQueue<>();
+    private HelloUDPNonblockingClient fallback;
 
+    public HelloUDPClient() {
+        this(false);
+    }
+
+    /**
+     * Creates client that runs every logical client on its own virtual thread if {@code virtualThreads} is set.
+     * Virtual threads need Java 21, on older runtimes {@link HelloUDPNonblockingClient} is used instead.
+     */
+    public HelloUDPClient(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Runs client, or {@link HelloUDPBenchmark} if the first argument is {@code --bench}.
+     */
     public static void main(String[] args) {
-        if (args == null || args.length != 5) {
+        if (args != null && args.length > 0 && "--bench".equals(args[0])) {
+            HelloUDPBenchmark.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args == null || args.length < 5 || args.length > 6 || args.length == 6 && !"--virtual".equals(args[5])) {
             System.err.println("Error: Illegal arguments format.");
             return;
         }
@@ -34,14 +57,23 @@ public class HelloUDPClient implements HelloClient {
             System.err.println("Error: Invalid arguments: " + e.getMessage());
             return;
         }
-        HelloClient helloClient = new HelloUDPClient();
+        HelloUDPClient helloClient = new HelloUDPClient(args.length == 6);
         helloClient.run(host, port, reqPref, numberOfThreads, numberOfRequests);
+        System.out.printf("Smoothed RTT: %.3f ms%n", helloClient.smoothedRttMillis());
     }
 
     @Override
     public void run(String host, int port, String prefix, int threads, int requests) {
         SocketAddress socket = new InetSocketAddress(host, port);
-        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        ExecutorService executorService = virtualThreads ? newVirtualExecutor() : Executors.newFixedThreadPool(threads);
+        estimators.clear();
+        fallback = null;
+        if (executorService == null) {
+            System.err.println("Error: virtual threads aren't available, using non-blocking client");
+            fallback = new HelloUDPNonblockingClient();
+            fallback.run(host, port, prefix, threads, requests);
+            return;
+        }
 
         for (int i = 1; i < threads + 1; i++) {
             executorService.submit(request(i, socket, prefix, requests));
@@ -50,37 +82,73 @@ public class HelloUDPClient implements HelloClient {
         executorService.shutdown();
 
         try {
-            executorService.awaitTermination(threads * requests * 500 * 10L, TimeUnit.MILLISECONDS);
+            // Every request may take several attempts, each waiting up to the longest backed off timeout
+            long perRequest = 10 * TimeUnit.NANOSECONDS.toMillis(RttEstimator.MAX_TIMEOUT);
+            long timeout = Math.min(Long.MAX_VALUE / perRequest, (long) threads * requests) * perRequest;
+            executorService.awaitTermination(timeout, TimeUnit.MILLISECONDS);
         } catch (InterruptedException ignored) {
         }
     }
 
+    /**
+     * Returns smoothed round-trip time averaged over the threads of the last {@link #run},
+     * {@code NaN} if no response was received.
+     */
+    public double smoothedRttMillis() {
+        return fallback != null ? fallback.smoothedRttMillis() : RttEstimator.averageMillis(estimators);
+    }
+
+    /** Returns virtual thread per task executor or {@code null} if virtual threads aren't available. */
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            // Via reflection, so that it still compiles on Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
     private Runnable request(int threadId, SocketAddress socket, String prefix, int requests) {
         return () ->
         {
+            final RttEstimator estimator = new RttEstimator();
+            estimators.add(estimator);
             try (final DatagramSocket datagramSocket = new DatagramSocket()) {
-                datagramSocket.setSoTimeout(SO_TIMEOUT);
 
-                final byte[] responseStorage = new byte[datagramSocket.getReceiveBufferSize()];
+                // Virtual clients are numerous, so they hold just the largest possible datagram
+                final byte[] responseStorage = new byte[virtualThreads
+                        ? Math.min(Util.MAX_DATAGRAM_SIZE, datagramSocket.getReceiveBufferSize())
+                        : datagramSocket.getReceiveBufferSize()];
                 for (int requestId = 1; requestId < requests + 1; requestId++) {
                     String request = prefix + threadId + "_" + requestId;
 
                     DatagramPacket response;
+                    // Karn's algorithm: RTT of retransmitted requests is ignored
+                    boolean retransmitted = false;
                     while (true) {
                         try {
+                            datagramSocket.setSoTimeout(estimator.timeoutMillis());
                             DatagramPacket datagramPacket = new DatagramPacket(
                                     request.getBytes(StandardCharsets.UTF_8),
                                     request.length(),
                                     socket);
+                            final long sent = System.nanoTime();
                             datagramSocket.send(datagramPacket);
 
-
                             response = new DatagramPacket(responseStorage, 0, responseStorage.length);
                             datagramSocket.receive(response);
 
-                            if (isCorrect(request, response)) break;
+                            if (isCorrect(request, response)) {
+                                if (!retransmitted) {
+                                    estimator.sample(System.nanoTime() - sent);
+                                }
+                                break;
+                            }
+                        } catch (final SocketTimeoutException e) {
+                            estimator.backoff();
                         } catch (final IOException ignored) {
                         }
+                        retransmitted = true;
                     }
                 }
 
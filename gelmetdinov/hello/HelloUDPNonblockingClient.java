@@ -0,0 +1,201 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hello client running all logical threads in the calling thread over non-blocking {@link DatagramChannel}s.
+ * <p>
+ * Every logical thread has its own channel with one request in flight. Each outstanding request
+ * has its own deadline, and only the request whose deadline passed is retransmitted,
+ * so a lost packet doesn't delay requests of other threads.
+ * Retransmission timeout of each thread adapts to its measured round-trip time, see {@link RttEstimator}.
+ */
+public class HelloUDPNonblockingClient implements HelloClient {
+    private final List<RttEstimator> estimators = new ArrayList<>();
+
+    public static void main(String[] args) {
+        if (args == null || args.length != 5) {
+            System.err.println("Error: Illegal arguments format.");
+            return;
+        }
+        String host;
+        int port;
+        String reqPref;
+        int numberOfThreads;
+        int numberOfRequests;
+        try {
+            host = args[0];
+            port = Integer.parseInt(args[1]);
+            reqPref = args[2];
+            numberOfThreads = Integer.parseInt(args[3]);
+            numberOfRequests = Integer.parseInt(args[4]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Invalid arguments: " + e.getMessage());
+            return;
+        }
+        HelloUDPNonblockingClient helloClient = new HelloUDPNonblockingClient();
+        helloClient.run(host, port, reqPref, numberOfThreads, numberOfRequests);
+        System.out.printf("Smoothed RTT: %.3f ms%n", helloClient.smoothedRttMillis());
+    }
+
+    @Override
+    public void run(String host, int port, String prefix, int threads, int requests) {
+        if (requests < 1 || threads < 1) {
+            return;
+        }
+        SocketAddress address = new InetSocketAddress(host, port);
+        estimators.clear();
+        List<DatagramChannel> channels = new ArrayList<>();
+        try (Selector selector = Selector.open()) {
+            for (int i = 1; i < threads + 1; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.configureBlocking(false);
+                channel.connect(address);
+                Context context = new Context(i, prefix, requests);
+                estimators.add(context.estimator);
+                channel.register(selector, SelectionKey.OP_WRITE, context);
+            }
+            loop(selector, threads);
+        } catch (IOException e) {
+            System.err.println("Error: DatagramChannel can't be opened " + e.getMessage());
+        } finally {
+            for (DatagramChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns smoothed round-trip time averaged over the threads of the last {@link #run},
+     * {@code NaN} if no response was received.
+     */
+    public double smoothedRttMillis() {
+        return RttEstimator.averageMillis(estimators);
+    }
+
+    private static void loop(Selector selector, int threads) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Util.MAX_DATAGRAM_SIZE);
+        PriorityQueue<Timer> timers = new PriorityQueue<>();
+        int active = threads;
+        while (active > 0 && !Thread.currentThread().isInterrupted()) {
+            Timer next = timers.peek();
+            long wait = next == null ? 0 : TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime());
+            selector.select(next == null ? 0 : Math.max(1, wait));
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                Context context = (Context) key.attachment();
+                if (key.isWritable()) {
+                    send(key, context, timers);
+                } else if (key.isReadable() && receive(key, context, buffer)) {
+                    if (!context.retransmitted) {
+                        context.estimator.sample(System.nanoTime() - context.sentAt);
+                    }
+                    if (context.next()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    } else {
+                        key.cancel();
+                        active--;
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline <= now) {
+                Timer timer = timers.poll();
+                SelectionKey key = timer.key;
+                if (key.isValid() && timer.attempt == timer.context.attempt && key.interestOps() == SelectionKey.OP_READ) {
+                    timer.context.estimator.backoff();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    private static void send(SelectionKey key, Context context, PriorityQueue<Timer> timers) {
+        try {
+            ((DatagramChannel) key.channel()).write(ByteBuffer.wrap(context.request));
+        } catch (IOException ignored) {
+            // The request is resent by the timer anyway
+        }
+        // Karn's algorithm: RTT of retransmitted requests is ignored
+        context.retransmitted = context.sentAt != 0;
+        context.sentAt = System.nanoTime();
+        context.attempt++;
+        timers.add(new Timer(context.sentAt + context.estimator.timeoutNanos(), key, context, context.attempt));
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private static boolean receive(SelectionKey key, Context context, ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            if (((DatagramChannel) key.channel()).receive(buffer) == null) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        buffer.flip();
+        return StandardCharsets.UTF_8.decode(buffer).toString().contains(context.requestString);
+    }
+
+    private static class Context {
+        final int threadId;
+        final String prefix;
+        final int requests;
+        final RttEstimator estimator = new RttEstimator();
+        int requestId = 1;
+        String requestString;
+        byte[] request;
+        int attempt;
+        long sentAt;
+        boolean retransmitted;
+
+        Context(int threadId, String prefix, int requests) {
+            this.threadId = threadId;
+            this.prefix = prefix;
+            this.requests = requests;
+            prepare();
+        }
+
+        /** Moves to the next request, returns {@code false} if all requests are done. */
+        boolean next() {
+            if (requestId == requests) {
+                return false;
+            }
+            requestId++;
+            prepare();
+            return true;
+        }
+
+        private void prepare() {
+            requestString = prefix + threadId + "_" + requestId;
+            request = requestString.getBytes(StandardCharsets.UTF_8);
+            sentAt = 0;
+        }
+    }
+
+    private record Timer(long deadline, SelectionKey key, Context context, int attempt) implements Comparable<Timer> {
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
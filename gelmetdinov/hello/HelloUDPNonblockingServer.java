@@ -0,0 +1,263 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hello server with a single I/O thread serving non-blocking {@link DatagramChannel} through {@link Selector}.
+ * <p>
+ * Requests are received into a fixed pool of reusable direct buffers right after the response prefix,
+ * so workers build responses in place. Responses are queued and sent when the channel becomes writable.
+ * When all buffers are in use, the server stops reading until some response is sent.
+ * <p>
+ * In batching mode the I/O thread drains up to {@code batchSize} ready datagrams per wakeup,
+ * waiting at most {@code maxWait} for the batch to fill, and hands the whole batch to one worker.
+ * Responses of a batch are queued together and flushed in a burst with a single wakeup.
+ */
+public class HelloUDPNonblockingServer implements HelloServer {
+    private static final int BUFFERS_PER_THREAD = 16;
+
+    private final Queue<Packet> free = new ConcurrentLinkedQueue<>();
+    private final Queue<Packet> outgoing = new ConcurrentLinkedQueue<>();
+    private final int batchSize;
+    private final long maxWait;
+    // Packets of a batch are chained via Packet.next to avoid allocating per batch
+    private Packet batch;
+    private Packet batchTail;
+    private int batchCount;
+    private long batchDeadline;
+    private ExecutorService workers;
+    private Selector selector;
+    private DatagramChannel channel;
+    private Thread io;
+
+    public HelloUDPNonblockingServer() {
+        this(1, 0);
+    }
+
+    /**
+     * Creates server that processes requests in batches of up to {@code batchSize} datagrams,
+     * delaying a request at most {@code maxWaitMicros} microseconds while the batch fills.
+     */
+    public HelloUDPNonblockingServer(int batchSize, long maxWaitMicros) {
+        if (batchSize < 1 || maxWaitMicros < 0) {
+            throw new IllegalArgumentException("batch size should be positive and max wait non-negative");
+        }
+        this.batchSize = batchSize;
+        this.maxWait = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+    }
+
+    /**
+     * Usage: {@code port threads [batchSize maxWaitMicros]}.
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length != 2 && args.length != 4) {
+            System.err.println("Error: Illegal arguments format.");
+            return;
+        }
+        int port;
+        int threads;
+        HelloServer server;
+        try {
+            port = Integer.parseInt(args[0]);
+            threads = Integer.parseInt(args[1]);
+            server = args.length == 4
+                    ? new HelloUDPNonblockingServer(Integer.parseInt(args[2]), Long.parseLong(args[3]))
+                    : new HelloUDPNonblockingServer();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Invalid arguments: " + e.getMessage());
+            return;
+        }
+        try (HelloServer helloServer = server) {
+            helloServer.start(port, threads);
+            Scanner scanner = new Scanner(System.in);
+            scanner.next();
+        }
+    }
+
+    @Override
+    public void start(int port, int threads) {
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            System.err.println("Error: can't create or access socket from port");
+            close();
+            return;
+        }
+        for (int i = 0; i < threads * BUFFERS_PER_THREAD; i++) {
+            free.add(new Packet(ByteBuffer.allocateDirect(Util.MAX_DATAGRAM_SIZE)));
+        }
+        workers = Executors.newFixedThreadPool(threads);
+        io = new Thread(this::serve, "hello-io");
+        io.start();
+    }
+
+    private void serve() {
+        try {
+            while (channel.isOpen()) {
+                await();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isReadable()) {
+                        receive();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        send();
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (batch != null && (batchCount >= batchSize || System.nanoTime() >= batchDeadline)) {
+                    dispatch();
+                }
+                SelectionKey key = channel.keyFor(selector);
+                if (key != null && key.isValid()) {
+                    key.interestOps((free.isEmpty() ? 0 : SelectionKey.OP_READ)
+                            | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
+            }
+        } catch (ClosedSelectorException ignored) {
+        } catch (IOException e) {
+            System.err.println("Error: selector failed " + e.getMessage());
+        }
+    }
+
+    /** Waits for channel events, but not longer than the pending batch may wait. */
+    private void await() throws IOException {
+        if (batch == null) {
+            selector.select();
+            return;
+        }
+        long remaining = batchDeadline - System.nanoTime();
+        if (remaining >= TimeUnit.MILLISECONDS.toNanos(1)) {
+            selector.select(TimeUnit.NANOSECONDS.toMillis(remaining));
+        } else {
+            if (remaining > 0) {
+                // select can't wait for less than a millisecond
+                LockSupport.parkNanos(remaining);
+            }
+            selector.selectNow();
+        }
+    }
+
+    private void receive() {
+        Packet packet;
+        while (batchCount < batchSize && (packet = free.poll()) != null) {
+            ByteBuffer buffer = packet.buffer;
+            buffer.clear().position(Util.RESPONSE_PREFIX.length);
+            try {
+                packet.address = channel.receive(buffer);
+            } catch (IOException e) {
+                System.err.println("Error: Something went wrong while receiving packet");
+                packet.address = null;
+            }
+            if (packet.address == null) {
+                free.add(packet);
+                return;
+            }
+            if (batchSize == 1) {
+                Packet request = packet;
+                workers.submit(() -> respond(request));
+                continue;
+            }
+            packet.next = null;
+            if (batch == null) {
+                batch = packet;
+                batchDeadline = System.nanoTime() + maxWait;
+            } else {
+                batchTail.next = packet;
+            }
+            batchTail = packet;
+            batchCount++;
+        }
+        if (batch != null && free.isEmpty()) {
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        Packet head = batch;
+        batch = batchTail = null;
+        batchCount = 0;
+        workers.submit(() -> respond(head));
+    }
+
+    /** Builds responses for the batch starting at {@code packet} in place and queues them. */
+    private void respond(Packet packet) {
+        while (packet != null) {
+            Packet next = packet.next;
+            ByteBuffer buffer = packet.buffer;
+            buffer.flip();
+            buffer.put(0, Util.RESPONSE_PREFIX);
+            outgoing.add(packet);
+            packet = next;
+        }
+        selector.wakeup();
+    }
+
+    private void send() {
+        Packet packet;
+        while ((packet = outgoing.peek()) != null) {
+            try {
+                if (channel.send(packet.buffer, packet.address) == 0) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Error: Something went wrong while sending packet");
+            }
+            outgoing.poll();
+            free.add(packet);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: can't close channel " + e.getMessage());
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (io != null) {
+            try {
+                io.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Packet {
+        final ByteBuffer buffer;
+        SocketAddress address;
+        Packet next;
+
+        Packet(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -3,91 +3,394 @@ package info.kgeorgiy.ja.gelmetdinov.hello;
 import java.io.IOException;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
 public class HelloUDPServer implements HelloServer {
+    /** What to do with a request that doesn't fit into the full hand-off queue. */
+    public enum OverloadPolicy {
+        /** Drop the request just received. */
+        DROP_NEWEST,
+        /** Drop the oldest queued request to make room for the new one. */
+        DROP_OLDEST,
+        /** Answer the new request with {@code Busy} right away. */
+        BUSY
+    }
+
+    private static final int POLL_MILLIS = 50;
+    private static final long DRAIN_TIMEOUT_MILLIS = 1000;
+    private static final byte[] BUSY_RESPONSE = "Busy".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean sharded;
+    private final ResponseCache cache;
+    private final BlockingQueue<Packet> queue;
+    private final OverloadPolicy policy;
+    private final BlockingQueue<Packet> pool = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private int poolLimit;
+    private final AtomicInteger receivers = new AtomicInteger();
+    private volatile boolean closing;
+    private final LongAdder inFlight = new LongAdder();
+    private final HelloServerMetrics metrics = new HelloServerMetrics(inFlight::sum);
     private ExecutorService executorService;
-    private DatagramSocket socket;
+    private DatagramSocket[] sockets = new DatagramSocket[0];
+
+    public HelloUDPServer() {
+        this(false);
+    }
+
+    /**
+     * Creates server that gives every worker its own socket bound to the same port with {@code SO_REUSEPORT}
+     * if {@code sharded} is set, so the kernel spreads requests over the sockets.
+     * Where the option isn't supported, all workers share one socket.
+     */
+    public HelloUDPServer(boolean sharded) {
+        this(sharded, 0, 0);
+    }
+
+    /**
+     * Creates server that also remembers up to {@code cacheSize} last responses for {@code cacheTtlMillis},
+     * so a retransmitted request is answered from the cache. Zero {@code cacheSize} disables the cache.
+     */
+    public HelloUDPServer(boolean sharded, int cacheSize, long cacheTtlMillis) {
+        this(sharded, cacheSize, cacheTtlMillis, 0, OverloadPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Creates server where receiving threads hand requests to workers through a queue of {@code queueCapacity}
+     * pooled packets, and requests that don't fit are handled according to {@code policy}.
+     * Zero {@code queueCapacity} makes every worker receive requests itself.
+     */
+    public HelloUDPServer(boolean sharded, int cacheSize, long cacheTtlMillis, int queueCapacity, OverloadPolicy policy) {
+        this.sharded = sharded;
+        this.cache = cacheSize == 0 ? null : new ResponseCache(cacheSize, cacheTtlMillis);
+        this.queue = queueCapacity == 0 ? null : new ArrayBlockingQueue<>(queueCapacity);
+        this.policy = policy;
+    }
 
+    /**
+     * Usage: {@code port threads [--sharded] [--cache size ttlMillis] [--metrics seconds]
+     * [--queue capacity drop-newest|drop-oldest|busy]}.
+     */
     public static void main(String[] args) {
-        if (args == null || args.length != 2) {
+        if (args == null || args.length < 2) {
             System.err.println("Error: Illegal arguments format.");
             return;
         }
         int port;
         int threads;
+        boolean sharded = false;
+        int cacheSize = 0;
+        long cacheTtl = 0;
+        int metricsPeriod = 0;
+        int queueCapacity = 0;
+        OverloadPolicy policy = OverloadPolicy.DROP_NEWEST;
+        HelloUDPServer server;
         try {
             port = Integer.parseInt(args[0]);
             threads = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e) {
+            for (int i = 2; i < args.length; i++) {
+                if ("--sharded".equals(args[i])) {
+                    sharded = true;
+                } else if ("--cache".equals(args[i]) && i + 2 < args.length) {
+                    cacheSize = Integer.parseInt(args[++i]);
+                    cacheTtl = Long.parseLong(args[++i]);
+                } else if ("--metrics".equals(args[i]) && i + 1 < args.length) {
+                    metricsPeriod = Integer.parseInt(args[++i]);
+                } else if ("--queue".equals(args[i]) && i + 2 < args.length) {
+                    queueCapacity = Integer.parseInt(args[++i]);
+                    policy = OverloadPolicy.valueOf(args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+                } else {
+                    System.err.println("Error: Illegal arguments format.");
+                    return;
+                }
+            }
+            server = new HelloUDPServer(sharded, cacheSize, cacheTtl, queueCapacity, policy);
+        } catch (IllegalArgumentException e) {
             System.err.println("Error: Invalid arguments: " + e.getMessage());
             return;
         }
-        try (HelloServer helloServer = new HelloUDPServer()) {
+        try (HelloServer helloServer = server) {
             helloServer.start(port, threads);
+            if (metricsPeriod > 0) {
+                server.metrics.startReporting(metricsPeriod);
+            }
             Scanner scanner = new Scanner(System.in);
             scanner.next();
         }
+        if (server.cache != null) {
+            System.out.printf("Cache hits: %d, misses: %d%n", server.cacheHits(), server.cacheMisses());
+        }
+
+    }
+
+    /** Returns number of requests answered from the response cache. */
+    public long cacheHits() {
+        return cache == null ? 0 : cache.hits();
+    }
+
+    /** Returns number of requests that weren't found in the response cache. */
+    public long cacheMisses() {
+        return cache == null ? 0 : cache.misses();
+    }
 
+    /** Returns metrics of this server, also registered as an MBean while the server runs. */
+    public HelloServerMetricsMBean metrics() {
+        return metrics;
     }
 
     @Override
     public void start(int port, int threads) {
         try {
-            executorService = Executors.newFixedThreadPool(threads);
-            socket = new DatagramSocket(port);
-        } catch (SocketException e) {
+            openSockets(port, threads);
+        } catch (IOException e) {
             System.err.println("Error: can't create or access socket from port");
             return;
         }
+        metrics.register(getClass().getSimpleName(), sockets[0].getLocalPort());
+        if (queue == null) {
+            executorService = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                executorService.submit(receivePackage(sockets[i % sockets.length]));
+            }
+            return;
+        }
+        // No more packets than can be queued or processed at once, so memory stays flat under overload
+        poolLimit = queue.remainingCapacity() + threads + sockets.length;
+        executorService = Executors.newFixedThreadPool(threads + sockets.length);
+        receivers.set(sockets.length);
+        for (DatagramSocket socket : sockets) {
+            executorService.submit(receiveToQueue(socket));
+        }
         for (int i = 0; i < threads; i++) {
-            executorService.submit(receivePackage());
+            executorService.submit(processQueue());
         }
+    }
 
+    private void openSockets(int port, int threads) throws IOException {
+        if (!sharded) {
+            sockets = new DatagramSocket[]{new DatagramSocket(port)};
+        } else {
+            DatagramSocket first = new DatagramSocket(null);
+            if (!first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                System.err.println("Error: SO_REUSEPORT isn't supported, using single socket");
+                threads = 1;
+            }
+            sockets = new DatagramSocket[threads];
+            sockets[0] = first;
+            for (int i = 0; i < threads; i++) {
+                if (sockets[i] == null) {
+                    sockets[i] = new DatagramSocket(null);
+                }
+                if (threads > 1) {
+                    sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                sockets[i].bind(new InetSocketAddress(port));
+                // For port 0 the other sockets bind to the port chosen for the first one
+                port = sockets[0].getLocalPort();
+            }
+        }
+        // receive wakes up periodically, so close doesn't pull the socket from under it
+        for (DatagramSocket socket : sockets) {
+            socket.setSoTimeout(POLL_MILLIS);
+        }
+    }
 
+    // Each thread reuses its own buffer and packet; the request is read right after "Hello, "
+    private Runnable receivePackage(DatagramSocket socket) {
+        return () -> {
+            final byte[] buffer;
+            try {
+                buffer = new byte[Util.RESPONSE_PREFIX.length + socket.getReceiveBufferSize()];
+            } catch (SocketException e) {
+                System.err.println("Error: There are some troubles with underlying socket protocol");
+                return;
+            }
+            System.arraycopy(Util.RESPONSE_PREFIX, 0, buffer, 0, Util.RESPONSE_PREFIX.length);
+            final DatagramPacket packet = new DatagramPacket(buffer, 0, buffer.length);
+            final ResponseCache.Key probe = new ResponseCache.Key();
+            while (!closing && !Thread.currentThread().isInterrupted()) {
+                if (receive(socket, buffer, packet)) {
+                    respond(socket, buffer, packet, probe, System.nanoTime());
+                }
+            }
+        };
     }
 
-    private Runnable receivePackage() {
+    /** Receives request right after the response prefix, returns {@code false} on timeout or error. */
+    private boolean receive(DatagramSocket socket, byte[] buffer, DatagramPacket packet) {
+        final int offset = Util.RESPONSE_PREFIX.length;
+        try {
+            packet.setData(buffer, offset, buffer.length - offset);
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (SocketException e) {
+            if (!socket.isClosed()) {
+                metrics.receiveError();
+                System.err.println("Error: There are some troubles with underlying socket protocol");
+            }
+            return false;
+        } catch (IOException e) {
+            metrics.receiveError();
+            System.err.println("Error: Something went wrong while receiving packet");
+            return false;
+        }
+        metrics.received(packet.getLength());
+        inFlight.increment();
+        return true;
+    }
+
+    private void respond(DatagramSocket socket, byte[] buffer, DatagramPacket packet, ResponseCache.Key probe, long received) {
+        final int offset = Util.RESPONSE_PREFIX.length;
+        try {
+            final int length = offset + packet.getLength();
+            if (cache == null) {
+                packet.setData(buffer, 0, length);
+            } else {
+                probe.set(packet.getAddress(), packet.getPort(), buffer, offset, packet.getLength());
+                final int cached = cache.lookup(probe, buffer, length);
+                packet.setData(buffer, 0, cached < 0 ? length : cached);
+            }
+            socket.send(packet);
+            metrics.sent(packet.getLength(), System.nanoTime() - received);
+        } catch (IOException e) {
+            metrics.sendError();
+            System.err.println("Error: Something went wrong while sending packet");
+        } finally {
+            inFlight.decrement();
+        }
+    }
+
+    private Runnable receiveToQueue(DatagramSocket socket) {
         return () -> {
-            DatagramPacket received;
-            while (!socket.isClosed() && !Thread.currentThread().isInterrupted()) {
-                try {
-                    int socketSize = socket.getReceiveBufferSize();
-                    received = new DatagramPacket(new byte[socketSize], socketSize);
-                    socket.receive(received);
-
-                    try {
-                        String s = Util.fromPacket(received);
-                        byte[] bytes = ("Hello, " +
-                                new String(received.getData(), received.getOffset(), received.getLength(),
-                                        StandardCharsets.UTF_8))
-                                .getBytes();
-                        DatagramPacket response = new DatagramPacket(bytes, 0, bytes.length, received.getAddress(),
-                                received.getPort());
-                        socket.send(response);
-                    } catch (IOException e) {
-                        System.err.println("Error: Something went wrong while sending packet");
+            try {
+                while (!closing && !Thread.currentThread().isInterrupted()) {
+                    final Packet packet = takePacket();
+                    if (!receive(socket, packet.buffer, packet.packet)) {
+                        pool.add(packet);
+                        continue;
                     }
+                    packet.socket = socket;
+                    packet.received = System.nanoTime();
+                    if (!queue.offer(packet)) {
+                        overload(packet);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                receivers.decrementAndGet();
+            }
+        };
+    }
 
+    /** Takes free packet from the pool, allocating a new one while the pool is below its limit. */
+    private Packet takePacket() throws InterruptedException {
+        Packet packet = pool.poll();
+        if (packet != null) {
+            return packet;
+        }
+        if (allocated.getAndIncrement() < poolLimit) {
+            return new Packet();
+        }
+        allocated.decrementAndGet();
+        return pool.take();
+    }
 
-                } catch (SocketException e) {
-                    System.err.println("Error: There are some troubles with underlying socket protocol");
+    private void overload(Packet packet) {
+        switch (policy) {
+            case DROP_NEWEST -> drop(packet);
+            case DROP_OLDEST -> {
+                Packet oldest = queue.poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+                if (!queue.offer(packet)) {
+                    drop(packet);
+                }
+            }
+            case BUSY -> {
+                try {
+                    packet.packet.setData(BUSY_RESPONSE);
+                    packet.socket.send(packet.packet);
+                    metrics.busyReply();
                 } catch (IOException e) {
-                    System.err.println("Error: Something went wrong while receiving packet");
+                    metrics.sendError();
                 }
+                inFlight.decrement();
+                pool.add(packet);
             }
+        }
+    }
 
-        };
+    private void drop(Packet packet) {
+        metrics.dropped();
+        inFlight.decrement();
+        pool.add(packet);
     }
 
+    private Runnable processQueue() {
+        return () -> {
+            final ResponseCache.Key probe = new ResponseCache.Key();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    final Packet packet = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (packet != null) {
+                        respond(packet.socket, packet.buffer, packet.packet, probe, packet.received);
+                        pool.add(packet);
+                    } else if (receivers.get() == 0) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        };
+    }
 
+    /**
+     * Stops receiving new requests, waits up to {@link #DRAIN_TIMEOUT_MILLIS} for requests
+     * already received to be answered and closes sockets.
+     */
     @Override
     public void close() {
-        executorService.shutdown();
-        socket.close();
+        closing = true;
+        metrics.close();
+        if (executorService != null) {
+            executorService.shutdown();
+            try {
+                if (!executorService.awaitTermination(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (DatagramSocket socket : sockets) {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    private static class Packet {
+        final byte[] buffer = new byte[Util.RESPONSE_PREFIX.length + Util.MAX_DATAGRAM_SIZE];
+        final DatagramPacket packet = new DatagramPacket(buffer, 0, buffer.length);
+        DatagramSocket socket;
+        long received;
+
+        Packet() {
+            System.arraycopy(Util.RESPONSE_PREFIX, 0, buffer, 0, Util.RESPONSE_PREFIX.length);
+        }
     }
 }
@@ -0,0 +1,79 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+/**
+ * Log-linear latency histogram in the spirit of HdrHistogram.
+ * <p>
+ * Every power of two is split into {@code 2^SUB_BITS} equal buckets, so any recorded value
+ * is reported with relative error below {@code 2^-SUB_BITS} using constant memory. Not thread-safe.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final long[] counts = new long[SUB_COUNT + (Long.SIZE - 1 - SUB_BITS) * SUB_COUNT];
+    private long total;
+    private long sum;
+    private long max;
+
+    void record(long value) {
+        value = Math.max(0, value);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /** Adds all values recorded by {@code other}. */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return total;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /** Returns value below which {@code percentile} percents of recorded values lie. */
+    long percentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highest(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /** Returns the largest value that falls into bucket {@code index}. */
+    private static long highest(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        long sub = SUB_COUNT + (index - SUB_COUNT) % SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,168 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of responses keyed by client address and request payload, entries expire after TTL.
+ * <p>
+ * The cache is striped: a key selects one of several shards by its hash, every shard is a separate LRU
+ * of an equal part of the capacity under its own lock, so workers rarely contend and the eviction order is
+ * approximately LRU. Each request takes the lock of its shard once.
+ * <p>
+ * Lookups go through a caller-owned mutable {@link Key}, and a hit is copied into the caller's buffer,
+ * so cached arrays never leave the shard. That allows a miss to reuse the arrays of the entry it evicts
+ * or of the expired entry it replaces, and only the first fill of the cache allocates them. Thread-safe.
+ */
+class ResponseCache {
+    private final long ttl;
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ResponseCache(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("cache size and TTL should be positive");
+        }
+        ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // Small caches aren't worth striping, they stay exact LRU
+        int stripes = Math.min(
+                Integer.highestOneBit(Math.max(1, capacity / 16)),
+                Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1
+        );
+        shards = new Shard[stripes];
+        for (int i = 0; i < stripes; i++) {
+            shards[i] = new Shard((capacity + stripes - 1) / stripes);
+        }
+    }
+
+    /**
+     * Copies response cached for {@code probe} into {@code buffer} and returns its length.
+     * Otherwise stores copy of the first {@code length} bytes of {@code buffer} as response for {@code probe}
+     * and returns {@code -1}. The request of {@code probe} should lie inside that response.
+     */
+    int lookup(Key probe, byte[] buffer, int length) {
+        long now = System.nanoTime();
+        int h = probe.hash ^ probe.hash >>> 16;
+        Shard shard = shards[h & (shards.length - 1)];
+        synchronized (shard) {
+            Key entry = shard.entries.get(probe);
+            if (entry != null && entry.expires - now > 0 && entry.responseLength <= buffer.length) {
+                System.arraycopy(entry.data, 0, buffer, 0, entry.responseLength);
+                hits.increment();
+                return entry.responseLength;
+            }
+            misses.increment();
+            if (entry == null) {
+                entry = shard.spare(length);
+                entry.address = probe.address;
+                entry.port = probe.port;
+                entry.offset = probe.offset;
+                entry.length = probe.length;
+                entry.hash = probe.hash;
+                fill(entry, buffer, length, now);
+                shard.entries.put(entry, entry);
+            } else {
+                // The expired entry has the same key, so it is refreshed in place
+                if (entry.data.length < length) {
+                    entry.data = new byte[length];
+                }
+                fill(entry, buffer, length, now);
+            }
+            return -1;
+        }
+    }
+
+    private void fill(Key entry, byte[] buffer, int length, long now) {
+        System.arraycopy(buffer, 0, entry.data, 0, length);
+        entry.responseLength = length;
+        entry.expires = now + ttl;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /** LRU part of the cache, keys are also values and hold their responses. */
+    private static final class Shard {
+        private final Map<Key, Key> entries;
+        private Key evicted;
+
+        Shard(int capacity) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Key> eldest) {
+                    if (size() > capacity) {
+                        evicted = eldest.getKey();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /** Returns the last evicted entry for reuse, or a new one, with room for {@code length} bytes. */
+        Key spare(int length) {
+            Key entry = evicted;
+            evicted = null;
+            if (entry == null) {
+                entry = new Key();
+            }
+            if (entry.data == null || entry.data.length < length) {
+                entry.data = new byte[length];
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Client address and request payload, mutable to be reused as a lookup probe.
+     * Cached entries keep the whole response in {@code data}, the request is its part.
+     */
+    static final class Key {
+        private InetAddress address;
+        private int port;
+        private byte[] data;
+        private int offset;
+        private int length;
+        private int hash;
+        private int responseLength;
+        private long expires;
+
+        Key set(InetAddress address, int port, byte[] data, int offset, int length) {
+            this.address = address;
+            this.port = port;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            int h = 31 * address.hashCode() + port;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other
+                    && hash == other.hash
+                    && port == other.port
+                    && address.equals(other.address)
+                    && Arrays.equals(data, offset, offset + length, other.data, other.offset, other.offset + other.length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package info.kgeorgiy.ja.gelmetdinov.hello;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timeout estimator of Jacobson/Karels (RFC 6298).
+ * <p>
+ * Keeps smoothed round-trip time and its variation, timeout is {@code SRTT + 4 * RTTVAR}
+ * bounded by {@link #MIN_TIMEOUT} and {@link #MAX_TIMEOUT}, and is doubled on every expiration.
+ * Callers should not sample round trips of retransmitted requests (Karn's algorithm).
+ * Not thread-safe.
+ */
+class RttEstimator {
+    static final long INITIAL_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(500);
+    static final long MIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(1);
+    static final long MAX_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private long smoothed = -1;
+    private long variation;
+    private long timeout = INITIAL_TIMEOUT;
+
+    void sample(long rtt) {
+        if (smoothed < 0) {
+            smoothed = rtt;
+            variation = rtt / 2;
+        } else {
+            variation = (3 * variation + Math.abs(smoothed - rtt)) / 4;
+            smoothed = (7 * smoothed + rtt) / 8;
+        }
+        timeout = Math.min(MAX_TIMEOUT, Math.max(MIN_TIMEOUT, smoothed + 4 * variation));
+    }
+
+    /** Doubles timeout after it expired. */
+    void backoff() {
+        timeout = Math.min(MAX_TIMEOUT, 2 * timeout);
+    }
+
+    long timeoutNanos() {
+        return timeout;
+    }
+
+    /** Returns timeout rounded up to milliseconds, at least one. */
+    int timeoutMillis() {
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    /** Returns smoothed round-trip time or {@code -1} if nothing was sampled. */
+    long smoothedNanos() {
+        return smoothed;
+    }
+
+    /** Returns average smoothed round-trip time of {@code estimators} in milliseconds, {@code NaN} if unknown. */
+    static double averageMillis(Iterable<RttEstimator> estimators) {
+        long sum = 0;
+        int count = 0;
+        for (RttEstimator estimator : estimators) {
+            if (estimator.smoothed >= 0) {
+                sum += estimator.smoothed;
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / 1e6 / count;
+    }
+}
@@ -4,6 +4,11 @@ import java.net.DatagramPacket;
 import java.nio.charset.StandardCharsets;
 
 public class Util {
+    /** Prefix server prepends to the request to get the response. */
+    public static final byte[] RESPONSE_PREFIX = "Hello, ".getBytes(StandardCharsets.UTF_8);
+    /** Maximal payload of a UDP datagram over IPv4. */
+    public static final int MAX_DATAGRAM_SIZE = 65_507;
+
     private Util() {
 
     }
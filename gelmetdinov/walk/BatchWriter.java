@@ -0,0 +1,131 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * UTF-8 text output that reuses its buffers and writes to {@link FileChannel} in batches
+ * of {@link #BATCH_SIZE} bytes. Appending a line does not allocate.
+ */
+class BatchWriter implements Closeable {
+    static final int BATCH_SIZE = 1 << 20;
+    private static final int CHARS_SIZE = 1 << 13;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final FileChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(CHARS_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BATCH_SIZE);
+    private final char[] digits = new char[20];
+
+    private BatchWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static BatchWriter open(Path path) throws IOException {
+        return new BatchWriter(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    BatchWriter append(char c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put(c);
+        return this;
+    }
+
+    BatchWriter append(CharSequence s) throws IOException {
+        for (int i = 0; i < s.length(); ) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int end = Math.min(s.length(), i + chars.remaining());
+            chars.append(s, i, end);
+            i = end;
+        }
+        return this;
+    }
+
+    /** Appends {@code bytes[from, to)} as lowercase hex digits. */
+    BatchWriter appendHex(byte[] bytes, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            append(HEX[(bytes[i] >> 4) & 0xF]).append(HEX[bytes[i] & 0xF]);
+        }
+        return this;
+    }
+
+    BatchWriter append(long value) throws IOException {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value).substring(1));
+            }
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start; i < digits.length; i++) {
+            append(digits[i]);
+        }
+        return this;
+    }
+
+    void newLine() throws IOException {
+        append(LINE_SEPARATOR);
+    }
+
+    /** Writes everything appended so far. */
+    void flush() throws IOException {
+        encode(false);
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        CoderResult result;
+        while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+            drain();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Computes several digests from one pass over the data.
+ * <p>
+ * Digests are concatenated into one array, and formatted as space-separated hex columns.
+ */
+class DigestEngine {
+    private final Digester[] digesters;
+    private final int length;
+
+    private DigestEngine(Digester[] digesters) {
+        this.digesters = digesters;
+        int total = 0;
+        for (Digester digester : digesters) {
+            total += digester.length();
+        }
+        this.length = total;
+    }
+
+    /**
+     * Returns factory of engines computing {@code algorithms} in given order.
+     *
+     * @throws IllegalArgumentException if some algorithm is not supported
+     * @see Digester#factory(String)
+     */
+    static Supplier<DigestEngine> factory(List<String> algorithms) {
+        if (algorithms.isEmpty()) {
+            throw new IllegalArgumentException("no algorithms given");
+        }
+        List<Supplier<Digester>> factories = algorithms.stream().map(Digester::factory).toList();
+        return () -> new DigestEngine(factories.stream().map(Supplier::get).toArray(Digester[]::new));
+    }
+
+    void update(ByteBuffer buffer) {
+        if (digesters.length == 1) {
+            digesters[0].update(buffer);
+            return;
+        }
+        int position = buffer.position();
+        for (Digester digester : digesters) {
+            buffer.position(position);
+            digester.update(buffer);
+        }
+    }
+
+    void update(byte[] bytes, int offset, int length) {
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Returns concatenated digests of {@code prefix || left || right} and resets state.
+     * Every algorithm consumes only its own digests from {@code left} and {@code right},
+     * so each column is built as if that algorithm were the only one.
+     */
+    byte[] digest(ByteBuffer prefix, byte[] left, byte[] right) {
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (Digester digester : digesters) {
+            digester.update(prefix.duplicate());
+            digester.update(ByteBuffer.wrap(left, offset, digester.length()));
+            digester.update(ByteBuffer.wrap(right, offset, digester.length()));
+            byte[] digest = digester.digest();
+            System.arraycopy(digest, 0, result, offset, digest.length);
+            offset += digest.length;
+        }
+        return result;
+    }
+
+    /** Returns concatenated digests and resets state. */
+    byte[] digest() {
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (Digester digester : digesters) {
+            byte[] digest = digester.digest();
+            System.arraycopy(digest, 0, result, offset, digest.length);
+            offset += digest.length;
+        }
+        return result;
+    }
+
+    void reset() {
+        for (Digester digester : digesters) {
+            digester.reset();
+        }
+    }
+
+    /** Returns total length of digests in bytes. */
+    int length() {
+        return length;
+    }
+
+    /** Writes {@link #digest()} result as hex columns, one per algorithm. */
+    void format(BatchWriter out, byte[] digest) throws IOException {
+        int offset = 0;
+        for (Digester digester : digesters) {
+            if (offset > 0) {
+                out.append(' ');
+            }
+            out.appendHex(digest, offset, offset + digester.length());
+            offset += digester.length();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Single hash or checksum algorithm used by {@link DigestEngine}.
+ */
+interface Digester {
+    /** Consumes remaining bytes of {@code buffer}. */
+    void update(ByteBuffer buffer);
+
+    /** Returns digest of consumed bytes and resets state. */
+    byte[] digest();
+
+    void reset();
+
+    /** Returns digest length in bytes. */
+    int length();
+
+    /**
+     * Returns factory of digesters for algorithm {@code name}:
+     * {@code crc32}, {@code crc32c}, {@code adler32}, {@code xxh64}
+     * or any algorithm supported by {@link MessageDigest}.
+     *
+     * @throws IllegalArgumentException if algorithm is not supported
+     */
+    static Supplier<Digester> factory(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "crc32" -> () -> new ChecksumDigester(new CRC32());
+            case "crc32c" -> () -> new ChecksumDigester(new CRC32C());
+            case "adler32" -> () -> new ChecksumDigester(new Adler32());
+            case "xxh64", "xxhash64" -> XxHash64::new;
+            default -> {
+                try {
+                    MessageDigest.getInstance(name);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("unsupported algorithm " + name);
+                }
+                yield () -> {
+                    try {
+                        return new MessageDigester(MessageDigest.getInstance(name));
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new AssertionError("algorithm " + name + " disappeared", e);
+                    }
+                };
+            }
+        };
+    }
+
+    record MessageDigester(MessageDigest messageDigest) implements Digester {
+        @Override
+        public void update(ByteBuffer buffer) {
+            messageDigest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return messageDigest.digest();
+        }
+
+        @Override
+        public void reset() {
+            messageDigest.reset();
+        }
+
+        @Override
+        public int length() {
+            return messageDigest.getDigestLength();
+        }
+    }
+
+    /** 32-bit {@link Checksum}, written as 4 big-endian bytes. */
+    record ChecksumDigester(Checksum checksum) implements Digester {
+        @Override
+        public void update(ByteBuffer buffer) {
+            checksum.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            long value = checksum.getValue();
+            checksum.reset();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        public void reset() {
+            checksum.reset();
+        }
+
+        @Override
+        public int length() {
+            return 4;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Finds files with equal contents among all files of the input.
+ * <p>
+ * Files are grouped by size first, files of unique size are never read.
+ * Candidates of equal size are grouped by XXH64 of their first and last {@link #EDGE} bytes,
+ * and only files sharing the partial hash are hashed completely with the configured algorithms.
+ * Each group of duplicates is written as consecutive lines sharing the same hash,
+ * groups of larger files come first.
+ * Files that are not read at all are counted as skipped.
+ * A file reached several times, by overlapping directories or an explicit line, is considered once.
+ */
+class DuplicateFinder implements Walk.EntryHandler, AutoCloseable {
+    static final int EDGE = 4096;
+
+    private final ExecutorService workers;
+    private final Map<Long, List<Candidate>> bySize = new HashMap<>();
+    private final Set<Path> seen = new HashSet<>();
+
+    DuplicateFinder(int threads) {
+        this.workers = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    @Override
+    public void handle(HashWriter writer, String pathName) {
+        Path path = Path.of(pathName);
+        BasicFileAttributes attrs = Walk.readAttributes(path, writer.metrics());
+        if (attrs == null) {
+            writer.metrics().error(WalkMetrics.Error.NOT_FOUND);
+            System.err.println("Error: file/directory doesn't exist " + pathName);
+        } else if (attrs.isRegularFile()) {
+            add(pathName, path, attrs);
+        } else {
+            long start = System.nanoTime();
+            try {
+                Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile()) {
+                            add(file.toString(), file, attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                writer.metrics().error(WalkMetrics.Error.DIRECTORY);
+                System.err.println("Error: cannot open directory " + e.getMessage());
+            }
+            writer.metrics().metadata(System.nanoTime() - start);
+        }
+    }
+
+    private void add(String pathName, Path path, BasicFileAttributes attrs) {
+        if (!seen.add(path.toAbsolutePath().normalize())) {
+            return;
+        }
+        bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(new Candidate(pathName, path, attrs));
+    }
+
+    @Override
+    public void finish(HashWriter writer) throws Walk.WriteHashException {
+        WalkMetrics metrics = writer.metrics();
+        bySize.values().stream().filter(candidates -> candidates.size() == 1).forEach(unique -> metrics.fileSkipped());
+        List<Long> sizes = bySize.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .map(Map.Entry::getKey)
+                .sorted(Comparator.reverseOrder())
+                .toList();
+        for (long size : sizes) {
+            List<Candidate> candidates = bySize.get(size);
+            Collection<List<Candidate>> groups = size > 2 * EDGE
+                    ? group(candidates, candidate -> partialHash(candidate, metrics))
+                    : List.of(candidates);
+            for (List<Candidate> group : groups) {
+                if (group.size() > 1) {
+                    for (List<Candidate> duplicates : group(group, candidate -> fullHash(writer, candidate))) {
+                        if (duplicates.size() > 1) {
+                            for (Candidate duplicate : duplicates) {
+                                writer.write(duplicate.digest, duplicate.attrs, duplicate.pathName);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Groups candidates by {@code key}, possibly in parallel. Candidates with {@code null} key are dropped. */
+    private Collection<List<Candidate>> group(List<Candidate> candidates, Function<Candidate, ByteBuffer> key) {
+        List<ByteBuffer> keys = keys(candidates, key);
+        Map<ByteBuffer, List<Candidate>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (keys.get(i) != null) {
+                groups.computeIfAbsent(keys.get(i), k -> new ArrayList<>()).add(candidates.get(i));
+            }
+        }
+        return groups.values();
+    }
+
+    private List<ByteBuffer> keys(List<Candidate> candidates, Function<Candidate, ByteBuffer> key) {
+        List<ByteBuffer> keys = new ArrayList<>(candidates.size());
+        if (workers == null) {
+            candidates.forEach(candidate -> keys.add(key.apply(candidate)));
+            return keys;
+        }
+        List<Callable<ByteBuffer>> tasks = candidates.stream()
+                .<Callable<ByteBuffer>>map(candidate -> () -> key.apply(candidate))
+                .toList();
+        try {
+            for (Future<ByteBuffer> future : workers.invokeAll(tasks)) {
+                keys.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            keys.clear();
+            candidates.forEach(candidate -> keys.add(null));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error: unexpected failure while hashing", e.getCause());
+        }
+        return keys;
+    }
+
+    private static ByteBuffer partialHash(Candidate candidate, WalkMetrics metrics) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * EDGE);
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            readFully(channel, buffer.limit(EDGE), 0);
+            readFully(channel, buffer.limit(2 * EDGE), candidate.attrs.size() - EDGE);
+            metrics.read(2 * EDGE, System.nanoTime() - start);
+        } catch (IOException | SecurityException e) {
+            metrics.error(WalkMetrics.Error.READ);
+            Walk.reportError("Error: can't read file ", candidate.pathName, e);
+            return null;
+        }
+        XxHash64 hash = new XxHash64();
+        hash.update(buffer.flip());
+        return ByteBuffer.wrap(hash.digest());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                // The file shrank after the walk, so it is better not compared at all
+                throw new IOException("file was truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static ByteBuffer fullHash(HashWriter writer, Candidate candidate) {
+        candidate.digest = writer.hash(candidate.pathName, candidate.path, candidate.attrs);
+        return candidate.digest == null ? null : ByteBuffer.wrap(candidate.digest);
+    }
+
+    private static class Candidate {
+        final String pathName;
+        final Path path;
+        final BasicFileAttributes attrs;
+        byte[] digest;
+
+        Candidate(String pathName, Path path, BasicFileAttributes attrs) {
+            this.pathName = pathName;
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+}
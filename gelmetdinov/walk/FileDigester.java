@@ -0,0 +1,103 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Feeds file contents to a {@link DigestEngine} through {@link FileChannel}.
+ * <p>
+ * Files smaller than {@link #MAP_THRESHOLD} are read into a per-thread direct buffer,
+ * larger ones are mapped into memory by windows of {@link #MAP_WINDOW} bytes.
+ * In both cases buffers are passed to {@link DigestEngine#update(ByteBuffer)} without copying into heap.
+ * <p>
+ * Time spent in reads and in digesting is reported to {@link WalkMetrics}.
+ * For mapped files page faults happen while digesting, so their I/O is accounted as digesting.
+ * If such file is truncated meanwhile, the fault is reported as {@link IOException}.
+ */
+final class FileDigester {
+    static final int BUFFER_SIZE = 1 << 20;
+    static final long MAP_THRESHOLD = 64L << 20;
+    static final long MAP_WINDOW = 64L << 20;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private FileDigester() {
+    }
+
+    static void update(DigestEngine digest, Path path, WalkMetrics metrics) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                map(digest, channel, size, metrics);
+            } else {
+                read(digest, channel, metrics);
+            }
+        }
+    }
+
+    /** Feeds {@code length} bytes of {@code channel} starting from {@code position}, or less if file is shorter. */
+    static void update(DigestEngine digest, FileChannel channel, long position, long length,
+                       WalkMetrics metrics) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        long end = position + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            long start = System.nanoTime();
+            int read = channel.read(buffer, position);
+            long time = System.nanoTime();
+            metrics.read(Math.max(read, 0), time - start);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+            metrics.digested(System.nanoTime() - time);
+        }
+    }
+
+    private static void read(DigestEngine digest, FileChannel channel, WalkMetrics metrics) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        long start = System.nanoTime();
+        int read;
+        // Files like those in /proc report size 0, so read until EOF rather than up to size
+        while ((read = channel.read(buffer)) != -1) {
+            long time = System.nanoTime();
+            metrics.read(read, time - start);
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+            start = System.nanoTime();
+            metrics.digested(start - time);
+        }
+        metrics.read(0, System.nanoTime() - start);
+    }
+
+    private static void map(DigestEngine digest, FileChannel channel, long size,
+                            WalkMetrics metrics) throws IOException {
+        for (long position = 0; position < size; position += MAP_WINDOW) {
+            long start = System.nanoTime();
+            long length = Math.min(MAP_WINDOW, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            long time = System.nanoTime();
+            metrics.read(length, time - start);
+            update(digest, window);
+            metrics.digested(System.nanoTime() - time);
+        }
+    }
+
+    /** Feeds mapped {@code window}, translating access to pages cut off by truncation into {@link IOException}. */
+    static void update(DigestEngine digest, MappedByteBuffer window) throws IOException {
+        try {
+            digest.update(window);
+        } catch (InternalError e) {
+            throw new IOException("file was truncated while hashing", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class FileDigesterTest {
+    @Test
+    public void test01_truncatedMappedFileIsReadError() throws IOException {
+        Path file = Files.createTempFile("file-digester", "");
+        Files.write(file, new byte[1 << 20]);
+        DigestEngine digest = DigestEngine.factory(List.of("SHA-256")).get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            channel.truncate(0);
+            try {
+                FileDigester.update(digest, window);
+                Assert.fail("IOException expected");
+            } catch (IOException expected) {
+                // truncated pages can't be read
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
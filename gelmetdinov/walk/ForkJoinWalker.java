@@ -0,0 +1,127 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Walks directory trees in a {@link ForkJoinPool}: every subdirectory is listed
+ * and every file is hashed by its own task, so listing overlaps with hashing.
+ * <p>
+ * In ordered mode lines of a tree are collected and written in the same order as
+ * {@link Files#walkFileTree} visits files. Otherwise lines are written as soon as files are hashed.
+ * Symbolic links are not followed, as in {@link Files#walkFileTree}.
+ */
+class ForkJoinWalker implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final boolean ordered;
+
+    ForkJoinWalker(int threads, boolean ordered) {
+        this.pool = new ForkJoinPool(threads);
+        this.ordered = ordered;
+    }
+
+    void walk(HashWriter writer, Path directory) throws Walk.WriteHashException {
+        for (Line line : pool.invoke(new DirectoryTask(writer, directory))) {
+            writer.write(line.digest, line.attrs, line.pathName);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private record Line(byte[] digest, BasicFileAttributes attrs, String pathName) {
+    }
+
+    private class DirectoryTask extends RecursiveTask<List<Line>> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashWriter writer;
+        private final Path directory;
+
+        DirectoryTask(HashWriter writer, Path directory) {
+            this.writer = writer;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Line> compute() {
+            List<ForkJoinTask<List<Line>>> children = new ArrayList<>();
+            long start = System.nanoTime();
+            long forking = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs = readAttributes(entry);
+                    long time = System.nanoTime();
+                    children.add((attrs != null && attrs.isDirectory()
+                            ? new DirectoryTask(writer, entry)
+                            : new FileTask(writer, entry, attrs)).fork());
+                    forking += System.nanoTime() - time;
+                }
+            } catch (IOException | DirectoryIteratorException | SecurityException e) {
+                writer.metrics().error(WalkMetrics.Error.DIRECTORY);
+                System.err.println("Error: cannot open directory " + directory + " " + e.getMessage());
+            }
+            writer.metrics().metadata(System.nanoTime() - start - forking);
+
+            List<Line> lines = ordered ? new ArrayList<>() : List.of();
+            for (ForkJoinTask<List<Line>> child : children) {
+                List<Line> childLines = child.join();
+                if (ordered) {
+                    lines.addAll(childLines);
+                }
+            }
+            return lines;
+        }
+    }
+
+    private class FileTask extends RecursiveTask<List<Line>> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashWriter writer;
+        private final Path path;
+        private final BasicFileAttributes attrs;
+
+        FileTask(HashWriter writer, Path path, BasicFileAttributes attrs) {
+            this.writer = writer;
+            this.path = path;
+            this.attrs = attrs;
+        }
+
+        @Override
+        protected List<Line> compute() {
+            String pathName = path.toString();
+            Line line = new Line(writer.hash(pathName, path, attrs), attrs, pathName);
+            if (ordered) {
+                return List.of(line);
+            }
+            synchronized (writer) {
+                try {
+                    writer.write(line.digest, line.attrs, line.pathName);
+                } catch (Walk.WriteHashException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            return List.of();
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Compares throughput of the old {@code FileInputStream} loop with {@link FileDigester}.
+ * <p>
+ * Usage: {@code HashBenchmark <file> [iterations]}
+ */
+public class HashBenchmark {
+    public static void main(String[] args) {
+        if (args == null || args.length < 1 || args.length > 2 || args[0] == null) {
+            System.err.println("Usage: HashBenchmark <file> [iterations]");
+            return;
+        }
+        try {
+            Path path = Path.of(args[0]);
+            int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            long size = Files.size(path);
+            DigestEngine digest = DigestEngine.factory(List.of("SHA-256")).get();
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+            // The first run warms up JIT and page cache
+            streamLoop(messageDigest, path);
+            FileDigester.update(digest, path, new WalkMetrics());
+            digest.reset();
+
+            long stream = 0;
+            long channel = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                streamLoop(messageDigest, path);
+                stream += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                FileDigester.update(digest, path, new WalkMetrics());
+                digest.digest();
+                channel += System.nanoTime() - start;
+            }
+            System.out.printf("file size:      %d bytes, %d iterations%n", size, iterations);
+            System.out.printf("stream, 1 KiB:  %.1f MiB/s%n", throughput(size, iterations, stream));
+            System.out.printf("FileDigester:   %.1f MiB/s%n", throughput(size, iterations, channel));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Invalid arguments: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: can't read file " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("Error: SHA-256 is not supported " + e.getMessage());
+        }
+    }
+
+    private static void streamLoop(MessageDigest digest, Path path) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(path.toString())) {
+            byte[] byteArray = new byte[1024];
+            int bytesCount;
+            while ((bytesCount = inputStream.read(byteArray)) != -1) {
+                digest.update(byteArray, 0, bytesCount);
+            }
+            digest.digest();
+        }
+    }
+
+    private static double throughput(long size, int iterations, long nanos) {
+        return (double) size * iterations / (1 << 20) / (nanos / 1e9);
+    }
+}
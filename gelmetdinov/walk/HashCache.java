@@ -0,0 +1,152 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of file hashes keyed by path, size, modification time and file key.
+ * <p>
+ * Binary format: {@code magic version algorithm count} followed by {@code count} entries
+ * {@code path size mtime fileKey digest}, where strings and digests are length-prefixed.
+ * Entries of files that were neither visited nor exist anymore are dropped on {@link #save()}.
+ * A truncated file invalidates the whole cache, entries with digests of unexpected length are skipped.
+ */
+class HashCache {
+    private static final int MAGIC = 0x57414C4B;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final String algorithm;
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Entry> visited = new ConcurrentHashMap<>();
+
+    private HashCache(Path file, String algorithm) {
+        this.file = file;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Loads cache from {@code file} keeping entries with digests of {@code digestLength} bytes.
+     * Missing, foreign or corrupted file gives empty cache.
+     */
+    static HashCache load(Path file, String algorithm, int digestLength) {
+        HashCache cache = new HashCache(file, algorithm);
+        if (!Files.exists(file)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !algorithm.equals(readString(in))) {
+                System.err.println("Error: hash cache " + file + " has unsupported format, ignoring it");
+                return cache;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                String path = readString(in);
+                Entry entry = new Entry(in.readLong(), in.readLong(), readString(in), readBytes(in));
+                if (entry.digest.length == digestLength) {
+                    cache.loaded.put(path, entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: can't load hash cache " + file + " " + e.getMessage());
+            cache.loaded.clear();
+        }
+        return cache;
+    }
+
+    /** Returns cached digest if file attributes haven't changed since it was stored, otherwise {@code null}. */
+    byte[] lookup(Path path, BasicFileAttributes attrs) {
+        String key = key(path);
+        Entry entry = loaded.get(key);
+        if (entry != null && entry.matches(attrs)) {
+            visited.put(key, entry);
+            return entry.digest;
+        }
+        return null;
+    }
+
+    void store(Path path, BasicFileAttributes attrs, byte[] digest) {
+        visited.put(key(path), Entry.of(attrs, digest));
+    }
+
+    void save() {
+        for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+            // The file may be absent from this walk but still exist
+            if (!visited.containsKey(entry.getKey()) && Files.exists(Path.of(entry.getKey()))) {
+                visited.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeBytes(out, algorithm.getBytes(StandardCharsets.UTF_8));
+                out.writeInt(visited.size());
+                for (Map.Entry<String, Entry> entry : visited.entrySet()) {
+                    Entry value = entry.getValue();
+                    writeBytes(out, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                    out.writeLong(value.size);
+                    out.writeLong(value.mtime);
+                    writeBytes(out, value.fileKey.getBytes(StandardCharsets.UTF_8));
+                    writeBytes(out, value.digest);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | SecurityException e) {
+            System.err.println("Error: can't save hash cache " + file + " " + e.getMessage());
+        }
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("negative length " + length);
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("unexpected end of file");
+        }
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private record Entry(long size, long mtime, String fileKey, byte[] digest) {
+        static Entry of(BasicFileAttributes attrs, byte[] digest) {
+            return new Entry(attrs.size(), mtime(attrs), fileKey(attrs), digest);
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && mtime == mtime(attrs) && fileKey.equals(fileKey(attrs));
+        }
+
+        private static long mtime(BasicFileAttributes attrs) {
+            return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        }
+
+        private static String fileKey(BasicFileAttributes attrs) {
+            return Objects.toString(attrs.fileKey(), "");
+        }
+
+    }
+}
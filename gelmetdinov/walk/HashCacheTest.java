@@ -0,0 +1,57 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+public class HashCacheTest {
+    private static final String ALGORITHM = "SHA-256";
+
+    private static Path savedCache(Path dir, Path file, byte[] digest) throws IOException {
+        Path cacheFile = dir.resolve("cache");
+        HashCache cache = HashCache.load(cacheFile, ALGORITHM, digest.length);
+        cache.store(file, Files.readAttributes(file, BasicFileAttributes.class), digest);
+        cache.save();
+        return cacheFile;
+    }
+
+    @Test
+    public void test01_roundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("hash-cache");
+        Path file = Files.writeString(dir.resolve("file"), "data");
+        byte[] digest = new byte[32];
+        Arrays.fill(digest, (byte) 7);
+        Path cacheFile = savedCache(dir, file, digest);
+
+        byte[] cached = HashCache.load(cacheFile, ALGORITHM, 32)
+                .lookup(file, Files.readAttributes(file, BasicFileAttributes.class));
+        Assert.assertTrue(Arrays.equals(digest, cached));
+    }
+
+    @Test
+    public void test02_truncatedCacheIsIgnored() throws IOException {
+        Path dir = Files.createTempDirectory("hash-cache");
+        Path file = Files.writeString(dir.resolve("file"), "data");
+        Path cacheFile = savedCache(dir, file, new byte[32]);
+        byte[] bytes = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(bytes, bytes.length - 5));
+
+        Assert.assertEquals(null, HashCache.load(cacheFile, ALGORITHM, 32)
+                .lookup(file, Files.readAttributes(file, BasicFileAttributes.class)));
+    }
+
+    @Test
+    public void test03_digestOfOtherLengthIsSkipped() throws IOException {
+        Path dir = Files.createTempDirectory("hash-cache");
+        Path file = Files.writeString(dir.resolve("file"), "data");
+        Path cacheFile = savedCache(dir, file, new byte[4]);
+
+        Assert.assertEquals(null, HashCache.load(cacheFile, ALGORITHM, 32)
+                .lookup(file, Files.readAttributes(file, BasicFileAttributes.class)));
+    }
+}
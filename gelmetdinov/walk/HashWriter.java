@@ -0,0 +1,190 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes {@code <hash> [<size>] [<mtime>] <path>} lines in the order entries were submitted.
+ * <p>
+ * With more than one thread hashes are computed by a pool of workers,
+ * while lines are still written in submission order,
+ * so the output is the same as the sequential one.
+ * At most {@link #WINDOW_PER_THREAD} entries per worker are kept pending.
+ * <p>
+ * If {@link HashCache} is given, files with unchanged attributes are not hashed at all.
+ * <p>
+ * Digests are kept as bytes until written, {@code null} digest stands for the zero hash of unreadable file.
+ */
+class HashWriter implements Closeable {
+    private static final int WINDOW_PER_THREAD = 64;
+
+    private final BatchWriter writer;
+    private final ExecutorService workers;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final int window;
+    private final Hasher hasher;
+    private final HashCache cache;
+    private final boolean sizeColumn;
+    private final boolean mtimeColumn;
+
+    HashWriter(BatchWriter writer, WalkOptions options, Hasher hasher, HashCache cache) {
+        this.writer = writer;
+        this.hasher = hasher;
+        this.cache = cache;
+        this.sizeColumn = options.sizeColumn;
+        this.mtimeColumn = options.mtimeColumn;
+        // Fork-join and dedup modes hash files with their own workers
+        int threads = options.forkJoin || options.dedup ? 1 : options.threads;
+        if (threads > 1) {
+            workers = Executors.newFixedThreadPool(threads);
+            window = threads * WINDOW_PER_THREAD;
+        } else {
+            workers = null;
+            window = 0;
+        }
+    }
+
+    /** Writes already known {@code digest} after all previously submitted entries. */
+    void write(byte[] digest, BasicFileAttributes attrs, String pathName) throws Walk.WriteHashException {
+        if (pending.isEmpty()) {
+            writeLine(digest, attrs, pathName);
+        } else {
+            pending.add(new Pending(CompletableFuture.completedFuture(digest), attrs, pathName));
+        }
+    }
+
+    /** Writes zero hash of file that can't be hashed. */
+    void writeError(String pathName) throws Walk.WriteHashException {
+        write(null, null, pathName);
+    }
+
+    /**
+     * Hashes file, possibly in background, and writes it in submission order.
+     * Hash is taken from cache if {@code attrs} of file haven't changed since it was hashed last time.
+     */
+    void submit(String pathName, Path path, BasicFileAttributes attrs) throws Walk.WriteHashException {
+        byte[] cached = lookup(path, attrs);
+        if (cached != null) {
+            metrics().fileSkipped();
+            write(cached, attrs, pathName);
+        } else {
+            submit(() -> compute(pathName, path, attrs), attrs, pathName);
+        }
+    }
+
+    /**
+     * Hashes file in the calling thread and returns digest to be written.
+     * Unlike other methods, may be called concurrently.
+     */
+    byte[] hash(String pathName, Path path, BasicFileAttributes attrs) {
+        byte[] cached = lookup(path, attrs);
+        if (cached != null) {
+            metrics().fileSkipped();
+            return cached;
+        }
+        return compute(pathName, path, attrs);
+    }
+
+    WalkMetrics metrics() {
+        return hasher.metrics();
+    }
+
+    private byte[] lookup(Path path, BasicFileAttributes attrs) {
+        return cache == null || attrs == null ? null : cache.lookup(path, attrs);
+    }
+
+    private byte[] compute(String pathName, Path path, BasicFileAttributes attrs) {
+        byte[] digest = hasher.hash(pathName, path);
+        if (digest != null && cache != null && attrs != null) {
+            cache.store(path, attrs, digest);
+        }
+        return digest;
+    }
+
+    private void submit(Callable<byte[]> task, BasicFileAttributes attrs, String pathName)
+            throws Walk.WriteHashException {
+        if (workers == null) {
+            writeLine(call(task, pathName), attrs, pathName);
+        } else {
+            pending.add(new Pending(workers.submit(task), attrs, pathName));
+            drain(false);
+        }
+    }
+
+    /** Writes all pending entries. */
+    void flush() throws Walk.WriteHashException {
+        drain(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    private void drain(boolean all) throws Walk.WriteHashException {
+        while (!pending.isEmpty() && (all || pending.size() > window || pending.peek().digest.isDone())) {
+            Pending entry = pending.poll();
+            writeLine(await(entry), entry.attrs, entry.pathName);
+        }
+    }
+
+    private void writeLine(byte[] digest, BasicFileAttributes attrs, String pathName)
+            throws Walk.WriteHashException {
+        try {
+            hasher.format(writer, digest);
+            if (sizeColumn) {
+                writer.append(' ').append(digest == null || attrs == null ? 0 : attrs.size());
+            }
+            if (mtimeColumn) {
+                writer.append(' ').append(digest == null || attrs == null ? 0 : attrs.lastModifiedTime().toMillis());
+            }
+            writer.append(' ').append(pathName).newLine();
+        } catch (IOException e) {
+            metrics().error(WalkMetrics.Error.WRITE);
+            throw new Walk.WriteHashException("Error: occurred some problems while writing to output file"
+                    + e.getMessage());
+        }
+    }
+
+    private byte[] call(Callable<byte[]> task, String pathName) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            metrics().error(WalkMetrics.Error.READ);
+            Walk.reportError("Error: can't hash ", pathName, e);
+            return null;
+        }
+    }
+
+    private byte[] await(Pending entry) throws Walk.WriteHashException {
+        try {
+            return entry.digest.get();
+        } catch (ExecutionException e) {
+            metrics().error(WalkMetrics.Error.READ);
+            Walk.reportError("Error: can't hash ", entry.pathName, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Walk.WriteHashException("Error: interrupted while waiting for hash of " + entry.pathName);
+        }
+    }
+
+    private record Pending(Future<byte[]> digest, BasicFileAttributes attrs, String pathName) {
+    }
+}
@@ -0,0 +1,96 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Hashes files with the configured algorithms, one {@link DigestEngine} per thread.
+ * In tree mode files are hashed by {@link TreeHasher}.
+ */
+class Hasher implements AutoCloseable {
+    private final ThreadLocal<DigestEngine> engines;
+    private final String algorithms;
+    private final byte[] zeros;
+    private final WalkMetrics metrics;
+    private final TreeHasher tree;
+
+    /**
+     * @throws IllegalArgumentException if some algorithm is not supported
+     * @throws IOException if chunks output can't be opened
+     */
+    Hasher(WalkOptions options, WalkMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.engines = ThreadLocal.withInitial(DigestEngine.factory(options.algorithms));
+        this.zeros = new byte[engines.get().length()];
+        String names = String.join(",", options.algorithms);
+        if (options.treeChunk > 0) {
+            int threads = options.threads > 1 ? options.threads : Runtime.getRuntime().availableProcessors();
+            BatchWriter chunks = options.chunks == null ? null : BatchWriter.open(Path.of(options.chunks));
+            this.tree = new TreeHasher(this, options.treeChunk, threads, chunks);
+            this.algorithms = "tree(" + options.treeChunk + "):" + names;
+        } else {
+            this.tree = null;
+            this.algorithms = names;
+        }
+    }
+
+    /** Returns digests of file or {@code null} if it can't be read. Errors are reported to {@code System.err}. */
+    byte[] hash(String pathName, Path path) {
+        long start = System.nanoTime();
+        try {
+            byte[] digest;
+            if (tree != null) {
+                digest = tree.hash(pathName, path, metrics);
+            } else {
+                DigestEngine engine = engines.get();
+                engine.reset();
+                FileDigester.update(engine, path, metrics);
+                digest = engine.digest();
+            }
+            metrics.fileHashed(System.nanoTime() - start);
+            return digest;
+        } catch (NoSuchFileException e) {
+            metrics.error(WalkMetrics.Error.NOT_FOUND);
+            Walk.reportError("Error: file wasn't found ", pathName, e);
+        } catch (SecurityException e) {
+            metrics.error(WalkMetrics.Error.SECURITY);
+            Walk.reportError("Error: security violation was detected while hashing ", pathName, e);
+        } catch (IOException e) {
+            metrics.error(WalkMetrics.Error.READ);
+            Walk.reportError("Error: can't read file ", pathName, e);
+        }
+        return null;
+    }
+
+    /** Writes hash columns of {@code digest}, or zero hash if {@code digest} is {@code null}. */
+    void format(BatchWriter out, byte[] digest) throws IOException {
+        engines.get().format(out, digest == null ? zeros : digest);
+    }
+
+    /** Returns engine of the calling thread. */
+    DigestEngine engine() {
+        return engines.get();
+    }
+
+    WalkMetrics metrics() {
+        return metrics;
+    }
+
+    /** Returns comma-separated algorithm names. */
+    String algorithms() {
+        return algorithms;
+    }
+
+    @Override
+    public void close() {
+        if (tree != null) {
+            try {
+                tree.close();
+            } catch (IOException e) {
+                System.err.println("Error: cannot write chunks " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,106 +1,78 @@
 package info.kgeorgiy.ja.gelmetdinov.walk;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 
 public class RecursiveWalk extends Walk {
     public static void main(String[] args) {
-        if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
-            System.err.println("ERROR: Invalid input");
-        } else if (messageDigest != null) {
-            walk(args[0], args[1]);
-        }
-    }
-
-
-    protected static void walk(String in, String out) {
-        Path input;
-        try {
-            input = Path.of(in);
-        } catch (InvalidPathException e) {
-            System.err.println("Invalid input file's path: " + e.getMessage());
+        WalkOptions options = parseOptions(args);
+        if (options == null) {
             return;
         }
-
-        Path output;
-        try {
-            output = Path.of(out);
-        } catch (InvalidPathException e) {
-            System.err.println("Invalid output file's path: " + e.getMessage());
-            return;
-        }
-
-        if (output.getParent() != null) {
-            try {
-                Files.createDirectories(output.getParent());
-                System.err.println("New directory was created");
-            } catch (IOException e) {
-                System.out.println("ERROR: IOException can't create folder for output file: " + e.getMessage());
-                return;
+        if (options.dedup) {
+            try (DuplicateFinder finder = new DuplicateFinder(options.threads)) {
+                walk(options, finder);
             }
-        }
-        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
-            try (BufferedReader reader = Files.newBufferedReader(input)) {
-                String pathName;
-                while ((pathName = reader.readLine()) != null) {
-                    try {
-                        Path path = Path.of(pathName);
-                        if (!Files.exists(path)) {
-                            System.err.println("Error: file/directory doesn't exist");
-                            writeHash(writer, ERROR, pathName);
-                        } else if (Files.isRegularFile(path)) {
-                            hashedSha256(writer, pathName, path);
-                        } else {
-                            handleDirectory(writer, pathName);
-                        }
-                    } catch (InvalidPathException e) {
-                        handleError("Error: file wasn't found ", writer, pathName, e);
-                    } catch (WriteHashException e) {
-                        System.err.println(e.getMessage());
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Error: cannot read input file " + e.getMessage());
-            } catch (SecurityException e) {
-                System.err.println("Error: security violation was detected while reading input file");
+        } else if (options.forkJoin) {
+            try (ForkJoinWalker walker = new ForkJoinWalker(options.threads, options.ordered)) {
+                walk(options, (writer, pathName) -> handleEntry(writer, pathName, walker));
             }
-        } catch (IOException e) {
-            System.err.println("Error: cannot write into output file " + e.getMessage());
-        } catch (SecurityException e) {
-            System.err.println("Error: security violation was detected while writing into output file");
+        } else {
+            walk(options, (writer, pathName) -> handleEntry(writer, pathName, null));
         }
+    }
 
+    private static void handleEntry(HashWriter writer, String pathName,
+                                    ForkJoinWalker forkJoinWalker) throws WriteHashException {
+        Path path = Path.of(pathName);
+        BasicFileAttributes attrs = readAttributes(path, writer.metrics());
+        if (attrs == null) {
+            writer.metrics().error(WalkMetrics.Error.NOT_FOUND);
+            System.err.println("Error: file/directory doesn't exist");
+            writer.writeError(pathName);
+        } else if (attrs.isRegularFile()) {
+            hashedSha256(writer, pathName, path, attrs);
+        } else if (forkJoinWalker != null && attrs.isDirectory()) {
+            forkJoinWalker.walk(writer, path);
+        } else {
+            handleDirectory(writer, pathName);
+        }
     }
 
-    private static void handleDirectory(BufferedWriter writer, String pathName) {
+    private static void handleDirectory(HashWriter writer, String pathName) {
+        Walker walker = new Walker(writer);
+        long start = System.nanoTime();
         try {
-            Walker walker = new Walker(writer);
             Files.walkFileTree(Path.of(pathName), walker);
         } catch (IOException e) {
+            writer.metrics().error(WalkMetrics.Error.DIRECTORY);
             System.err.println("Error: cannot open directory " + e.getMessage());
         }
+        // Whatever is not spent in visitFile goes to reading directories and attributes
+        writer.metrics().metadata(System.nanoTime() - start - walker.visitNanos);
     }
 
     static class Walker extends SimpleFileVisitor<Path> {
-        BufferedWriter writer;
+        HashWriter writer;
+        long visitNanos;
 
-        public Walker(BufferedWriter writer) {
+        public Walker(HashWriter writer) {
             this.writer = writer;
         }
 
         @Override
         public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+            long start = System.nanoTime();
             String pathName = path.toString();
             // NOTE: может убиться при обходе файлов
             try {
-                hashedSha256(writer, pathName, Path.of(pathName));
+                hashedSha256(writer, pathName, Path.of(pathName), attrs);
             } catch (WriteHashException e) {
                 System.out.println("Error: occurred some problems while writing to output file" + e.getMessage());
             }
+            visitNanos += System.nanoTime() - start;
             return FileVisitResult.CONTINUE;
         }
     }
-}
\ No newline at end of file
+}
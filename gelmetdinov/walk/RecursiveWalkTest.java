@@ -0,0 +1,37 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class RecursiveWalkTest {
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static List<String> walk(List<String> lines, String... options) throws IOException {
+        Path dir = Files.createTempDirectory("recursive-walk");
+        Path input = Files.write(dir.resolve("input"), lines);
+        Path output = dir.resolve("output");
+        String[] args = new String[options.length + 2];
+        args[0] = input.toString();
+        args[1] = output.toString();
+        System.arraycopy(options, 0, args, 2, options.length);
+        RecursiveWalk.main(args);
+        return Files.readAllLines(output);
+    }
+
+    @Test
+    public void test01_forkJoinHashesNonRegularFile() throws IOException {
+        Path device = Path.of("/dev/null");
+        if (!Files.exists(device)) {
+            return;
+        }
+        List<String> expected = List.of(EMPTY_SHA256 + " " + device);
+        Assert.assertEquals(expected, walk(List.of(device.toString())));
+        Assert.assertEquals(expected, walk(List.of(device.toString()), "--fork-join"));
+        Assert.assertEquals(expected, walk(List.of(device.toString()), "--fork-join", "--ordered"));
+    }
+}
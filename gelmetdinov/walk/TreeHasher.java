@@ -0,0 +1,130 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes files as Merkle trees of fixed-size chunks.
+ * <p>
+ * Chunks are hashed in parallel, leaf is {@code H(0x00 || chunk)}, inner node is {@code H(0x01 || left || right)},
+ * a node without pair is promoted to the next level unchanged (as in RFC 6962).
+ * With several algorithms every one builds its own tree, nodes hash only the children digests of the same algorithm.
+ * Empty file consists of one empty chunk. Files of more than {@link Integer#MAX_VALUE} chunks are rejected.
+ * <p>
+ * If chunks output is given, every chunk of every hashed file is written to it as
+ * {@code <hash> <offset> <length> <path>}, chunks of one file are written together and in order.
+ */
+class TreeHasher implements AutoCloseable {
+    private static final ByteBuffer LEAF = ByteBuffer.wrap(new byte[]{0});
+    private static final ByteBuffer NODE = ByteBuffer.wrap(new byte[]{1});
+
+    private final Hasher hasher;
+    private final long chunkSize;
+    private final ForkJoinPool pool;
+    private final BatchWriter chunks;
+
+    TreeHasher(Hasher hasher, long chunkSize, int threads, BatchWriter chunks) {
+        this.hasher = hasher;
+        this.chunkSize = chunkSize;
+        this.pool = new ForkJoinPool(threads);
+        this.chunks = chunks;
+    }
+
+    byte[] hash(String pathName, Path path, WalkMetrics metrics) throws IOException {
+        List<byte[]> leaves;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            long chunkCount = Math.max(1, size / chunkSize + (size % chunkSize == 0 ? 0 : 1));
+            if (chunkCount > Integer.MAX_VALUE) {
+                throw new IOException("too many chunks of size " + chunkSize + " in file of size " + size);
+            }
+            int count = (int) chunkCount;
+            leaves = count == 1 ? List.of(leaf(channel, 0, size, metrics)) : leaves(channel, size, count, metrics);
+        }
+        writeChunks(pathName, leaves, size);
+
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                next.add(i + 1 < level.size() ? node(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    private List<byte[]> leaves(FileChannel channel, long size, int count, WalkMetrics metrics) throws IOException {
+        List<Callable<byte[]>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long position = i * chunkSize;
+            tasks.add(() -> leaf(channel, position, Math.min(chunkSize, size - position), metrics));
+        }
+        List<byte[]> leaves = new ArrayList<>(count);
+        try {
+            for (Future<byte[]> future : pool.invokeAll(tasks)) {
+                leaves.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("chunk can't be hashed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while hashing chunks");
+        }
+        return leaves;
+    }
+
+    private byte[] leaf(FileChannel channel, long position, long length, WalkMetrics metrics) throws IOException {
+        DigestEngine engine = hasher.engine();
+        engine.reset();
+        engine.update(LEAF.duplicate());
+        FileDigester.update(engine, channel, position, length, metrics);
+        return engine.digest();
+    }
+
+    private byte[] node(byte[] left, byte[] right) {
+        DigestEngine engine = hasher.engine();
+        engine.reset();
+        return engine.digest(NODE, left, right);
+    }
+
+    private void writeChunks(String pathName, List<byte[]> leaves, long size) {
+        if (chunks == null) {
+            return;
+        }
+        synchronized (chunks) {
+            try {
+                for (int i = 0; i < leaves.size(); i++) {
+                    long offset = i * chunkSize;
+                    hasher.format(chunks, leaves.get(i));
+                    chunks.append(' ').append(offset).append(' ').append(Math.min(chunkSize, size - offset))
+                            .append(' ').append(pathName).newLine();
+                }
+            } catch (IOException e) {
+                hasher.metrics().error(WalkMetrics.Error.WRITE);
+                System.err.println("Error: occurred some problems while writing chunks " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        if (chunks != null) {
+            chunks.close();
+        }
+    }
+}
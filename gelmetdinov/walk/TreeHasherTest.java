@@ -0,0 +1,58 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+/** Expected roots are computed by an independent Python implementation of the same tree. */
+public class TreeHasherTest {
+    private static String hash(Path file, String... options) throws IOException {
+        String[] args = new String[options.length + 2];
+        args[0] = "input";
+        args[1] = "output";
+        System.arraycopy(options, 0, args, 2, options.length);
+        try (Hasher hasher = new Hasher(WalkOptions.parse(args), new WalkMetrics())) {
+            byte[] digest = hasher.hash(file.toString(), file);
+            return digest == null ? null : HexFormat.of().formatHex(digest);
+        }
+    }
+
+    private static Path file(byte[] data) throws IOException {
+        Path file = Files.createTempFile("tree-hasher", "");
+        file.toFile().deleteOnExit();
+        return Files.write(file, data);
+    }
+
+    @Test
+    public void test01_referenceRoots() throws IOException {
+        Path digits = file("0123456789".getBytes());
+        Assert.assertEquals("bc1044a40ff355812e6d1c6c23ac4b1189840cee880dcb44d5334e72762369bf",
+                hash(digits, "--tree", "4"));
+        Assert.assertEquals("c94380bf582e2c5e7be8f0e5adce4cbe2eaa619f9ba620fa8cf5246e15145feb",
+                hash(digits, "--tree", "16"));
+        Assert.assertEquals("6e340b9cffb37a989ca544e6bb780a2c78901d3fb33738768511a30617afa01d",
+                hash(file(new byte[0]), "--tree", "4"));
+    }
+
+    @Test
+    public void test02_algorithmsBuildSeparateTrees() throws IOException {
+        Path digits = file("0123456789".getBytes());
+        Assert.assertEquals("bc1044a40ff355812e6d1c6c23ac4b1189840cee880dcb44d5334e72762369bf" + "8b87c820",
+                hash(digits, "--tree", "4", "--algorithms", "SHA-256,crc32"));
+    }
+
+    @Test
+    public void test03_tooManyChunksIsReadError() throws IOException {
+        Path sparse = file(new byte[0]);
+        try (RandomAccessFile file = new RandomAccessFile(sparse.toFile(), "rw")) {
+            file.setLength(3L << 30);
+        }
+        Assert.assertNull(hash(sparse, "--tree", "1"));
+        Files.delete(sparse);
+    }
+}
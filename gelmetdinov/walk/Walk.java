@@ -4,43 +4,50 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HexFormat;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public class Walk {
-    protected static MessageDigest messageDigest;
-
-    static {
-        try {
-            messageDigest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println("Error: can't use SHA-256 ");
+    protected static class WriteHashException extends IOException {
+        WriteHashException(String message) {
+            super(message);
         }
     }
 
-    protected static final int HASH_LENGTH = 2 * messageDigest.getDigestLength();
-    protected static final String ERROR = "0".repeat(HASH_LENGTH);
+    @FunctionalInterface
+    protected interface EntryHandler {
+        void handle(HashWriter writer, String pathName) throws WriteHashException;
 
-
-    protected static class WriteHashException extends IOException {
-        WriteHashException(String message) {
-            super(message);
+        /** Called after all input lines are handled. */
+        default void finish(HashWriter writer) throws WriteHashException {
         }
     }
 
     public static void main(String[] args) {
-        if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
-            System.err.println("ERROR: Invalid input");
-        } else if (messageDigest != null) {
-            walk(args[0], args[1]);
+        WalkOptions options = parseOptions(args);
+        if (options == null) {
+            return;
         }
+        if (options.forkJoin || options.dedup) {
+            System.err.println("ERROR: Invalid input: "
+                    + (options.forkJoin ? "--fork-join" : "--dedup") + " is supported by RecursiveWalk only");
+            return;
+        }
+        walk(options, Walk::handleEntry);
     }
 
-    protected static void walk(String in, String out) {
+    protected static WalkOptions parseOptions(String[] args) {
+        try {
+            return WalkOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: Invalid input: " + e.getMessage());
+            return null;
+        }
+    }
+
+    protected static void walk(WalkOptions options, EntryHandler handler) {
         Path input;
         try {
-            input = Path.of(in);
+            input = Path.of(options.input);
         } catch (InvalidPathException e) {
             System.err.println("Invalid input file's path: " + e.getMessage());
             return;
@@ -48,12 +55,22 @@ public class Walk {
 
         Path output;
         try {
-            output = Path.of(out);
+            output = Path.of(options.output);
         } catch (InvalidPathException e) {
             System.err.println("Invalid output file's path: " + e.getMessage());
             return;
         }
 
+        Path cachePath = null;
+        if (options.cache != null) {
+            try {
+                cachePath = Path.of(options.cache);
+            } catch (InvalidPathException e) {
+                System.err.println("Invalid cache file's path: " + e.getMessage());
+                return;
+            }
+        }
+
         if (output.getParent() != null) {
             try {
                 Files.createDirectories(output.getParent());
@@ -63,72 +80,100 @@ public class Walk {
                 return;
             }
         }
-        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
-            try (BufferedReader reader = Files.newBufferedReader(input)) {
-                String pathName;
-                while ((pathName = reader.readLine()) != null) {
-                    try {
-                        Path path = Path.of(pathName);
-                        if (Files.isRegularFile(path)) {
-                            hashedSha256(writer, pathName, path);
-                        } else {
-                            writeHash(writer, ERROR, pathName);
+        WalkMetrics metrics = new WalkMetrics();
+        Hasher hasher;
+        try {
+            hasher = new Hasher(options, metrics);
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Error: cannot open chunks file " + e.getMessage());
+            return;
+        }
+        HashCache cache = cachePath == null
+                ? null
+                : HashCache.load(cachePath, hasher.algorithms(), hasher.engine().length());
+        if (options.progress > 0) {
+            metrics.startReporting(options.progress);
+        }
+        try {
+            try (BatchWriter batchWriter = BatchWriter.open(output);
+                 HashWriter writer = new HashWriter(batchWriter, options, hasher, cache)) {
+                try (BufferedReader reader = Files.newBufferedReader(input)) {
+                    String pathName;
+                    while ((pathName = reader.readLine()) != null) {
+                        try {
+                            handler.handle(writer, pathName);
+                        } catch (InvalidPathException e) {
+                            handleError(WalkMetrics.Error.INVALID_PATH, "Error: file wasn't found ",
+                                    writer, pathName, e);
+                        } catch (WriteHashException e) {
+                            System.err.println(e.getMessage());
                         }
-                    } catch (InvalidPathException e) {
-                        handleError("Error: file wasn't found ", writer, pathName, e);
+                    }
+                    try {
+                        handler.finish(writer);
                     } catch (WriteHashException e) {
                         System.err.println(e.getMessage());
                     }
+                } catch (IOException e) {
+                    // :NOTE: здесь ловится reader.readLine
+                    System.err.println("Error: cannot read input file " + e.getMessage());
+                } catch (SecurityException e) {
+                    System.err.println("Error: security violation was detected while reading input file");
                 }
             } catch (IOException e) {
-                // :NOTE: здесь ловится reader.readLine
-                System.err.println("Error: cannot read input file " + e.getMessage());
+                System.err.println("Error: cannot write into output file " + e.getMessage());
             } catch (SecurityException e) {
-                System.err.println("Error: security violation was detected while reading input file");
+                System.err.println("Error: security violation was detected while writing into output file");
             }
-        } catch (IOException e) {
-            System.err.println("Error: cannot write into output file " + e.getMessage());
-        } catch (SecurityException e) {
-            System.err.println("Error: security violation was detected while writing into output file");
+        } finally {
+            metrics.stopReporting();
+            hasher.close();
+            if (cache != null) {
+                cache.save();
+            }
+        }
+        if (options.metrics != null) {
+            metrics.writeJson(options.metrics);
         }
     }
 
-    protected static void hashedSha256(BufferedWriter writer, String pathName, Path path) throws WriteHashException {
-        byte[] bytes = null;
-        try (FileInputStream inputStream = new FileInputStream(path.toString())) {
-            byte[] byteArray = new byte[1024];
-            int bytesCount;
-            while ((bytesCount = inputStream.read(byteArray)) != -1) {
-                messageDigest.update(byteArray, 0, bytesCount);
+    private static void handleEntry(HashWriter writer, String pathName) throws WriteHashException {
+        Path path = Path.of(pathName);
+        BasicFileAttributes attrs = readAttributes(path, writer.metrics());
+        if (attrs != null && attrs.isRegularFile()) {
+            hashedSha256(writer, pathName, path, attrs);
+        } else {
+            if (attrs == null) {
+                writer.metrics().error(WalkMetrics.Error.NOT_FOUND);
             }
-            bytes = messageDigest.digest();
-        } catch (FileNotFoundException e) {
-            handleError("Error: file wasn't found ", writer, pathName, e);
-
-        } catch (SecurityException e) {
-            handleError("Error: security violation was detected while hashing ", writer, pathName, e);
-        } catch (IOException e) {
-            // :NOTE: здесь ловится WriteHashException fixed
-            handleError("Error: can't read file ", writer, pathName, e);
-        }
-        if (bytes != null) {
-            writeHash(writer, HexFormat.of().formatHex(bytes), pathName);
+            writer.writeError(pathName);
         }
     }
 
-    protected static void writeHash(BufferedWriter writer, String first, String second) throws WriteHashException {
+    protected static BasicFileAttributes readAttributes(Path path, WalkMetrics metrics) {
+        long start = System.nanoTime();
         try {
-            writer.write(String.format("%s %s", first, second));
-            writer.newLine();
-        } catch (IOException e) {
-            throw new WriteHashException("Error: occurred some problems while writing to output file" + e.getMessage());
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException | SecurityException e) {
+            return null;
+        } finally {
+            metrics.metadata(System.nanoTime() - start);
         }
     }
 
-    protected static void handleError(String message, BufferedWriter writer, String pathName,
-                                      Throwable e) throws WriteHashException {
+    protected static void hashedSha256(HashWriter writer, String pathName, Path path,
+                                       BasicFileAttributes attrs) throws WriteHashException {
+        writer.submit(pathName, path, attrs);
+    }
+
+    protected static void handleError(WalkMetrics.Error error, String message, HashWriter writer,
+                                      String pathName, Throwable e) throws WriteHashException {
+        writer.metrics().error(error);
+        reportError(message, pathName, e);
+        writer.writeError(pathName);
+    }
+
+    protected static void reportError(String message, String pathName, Throwable e) {
         System.err.println(message + pathName + " " + e.getMessage());
-        writeHash(writer, ERROR, pathName);
     }
 }
-
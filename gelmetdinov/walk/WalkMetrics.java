@@ -0,0 +1,173 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a walk: files and bytes hashed, files skipped, errors by category,
+ * time spent in I/O, digesting and metadata operations, and histogram of per-file hashing latency.
+ * <p>
+ * Can be reported periodically to {@code System.err} and summarized as JSON at the end.
+ */
+class WalkMetrics {
+    enum Error {
+        NOT_FOUND, SECURITY, READ, INVALID_PATH, DIRECTORY, WRITE
+    }
+
+    /** Latency bucket {@code i} holds files hashed in {@code [2^(i-1), 2^i)} microseconds. */
+    private static final int BUCKETS = 40;
+
+    private final long start = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder ioNanos = new LongAdder();
+    private final LongAdder digestNanos = new LongAdder();
+    private final LongAdder metadataNanos = new LongAdder();
+    private final Map<Error, LongAdder> errors = new EnumMap<>(Error.class);
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+    private ScheduledExecutorService reporter;
+
+    WalkMetrics() {
+        for (Error error : Error.values()) {
+            errors.put(error, new LongAdder());
+        }
+    }
+
+    void fileHashed(long nanos) {
+        files.increment();
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        latency.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    void fileSkipped() {
+        skipped.increment();
+    }
+
+    void read(long count, long nanos) {
+        bytes.add(count);
+        ioNanos.add(nanos);
+    }
+
+    void digested(long nanos) {
+        digestNanos.add(nanos);
+    }
+
+    void metadata(long nanos) {
+        metadataNanos.add(nanos);
+    }
+
+    void error(Error error) {
+        errors.get(error).increment();
+    }
+
+    /** Starts reporting progress to {@code System.err} every {@code seconds} seconds. */
+    void startReporting(int seconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "walk-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.err.println(progress()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    String progress() {
+        double seconds = elapsedSeconds();
+        long totalErrors = errors.values().stream().mapToLong(LongAdder::sum).sum();
+        double busy = Math.max(1, ioNanos.sum() + digestNanos.sum() + metadataNanos.sum());
+        return String.format(Locale.ROOT,
+                "Progress: %d files (%.1f/s), %.1f MiB (%.1f MiB/s), %d skipped, %d errors, "
+                        + "io %.0f%%, digest %.0f%%, metadata %.0f%%",
+                files.sum(), files.sum() / seconds, mebibytes(), mebibytes() / seconds,
+                skipped.sum(), totalErrors,
+                100 * ioNanos.sum() / busy, 100 * digestNanos.sum() / busy, 100 * metadataNanos.sum() / busy);
+    }
+
+    String toJson() {
+        double seconds = elapsedSeconds();
+        StringBuilder json = new StringBuilder("{");
+        json.append(String.format(Locale.ROOT,
+                "\"seconds\": %.3f, \"files\": %d, \"bytes\": %d, \"skipped\": %d, "
+                        + "\"filesPerSecond\": %.1f, \"bytesPerSecond\": %.1f, "
+                        + "\"ioNanos\": %d, \"digestNanos\": %d, \"metadataNanos\": %d, ",
+                seconds, files.sum(), bytes.sum(), skipped.sum(),
+                files.sum() / seconds, bytes.sum() / seconds,
+                ioNanos.sum(), digestNanos.sum(), metadataNanos.sum()));
+        json.append("\"errors\": {");
+        String separator = "";
+        for (Map.Entry<Error, LongAdder> entry : errors.entrySet()) {
+            json.append(separator).append('"').append(entry.getKey().name().toLowerCase(Locale.ROOT))
+                    .append("\": ").append(entry.getValue().sum());
+            separator = ", ";
+        }
+        json.append("}, \"latencyMicros\": {");
+        json.append("\"p50\": ").append(percentile(0.5))
+                .append(", \"p90\": ").append(percentile(0.9))
+                .append(", \"p99\": ").append(percentile(0.99))
+                .append(", \"max\": ").append(percentile(1))
+                .append(", \"buckets\": {");
+        separator = "";
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = latency.get(i);
+            if (count > 0) {
+                json.append(separator).append("\"<").append(1L << i).append("\": ").append(count);
+                separator = ", ";
+            }
+        }
+        return json.append("}}}").toString();
+    }
+
+    /** Writes JSON summary to {@code target}, or to {@code System.err} if target is {@code -}. */
+    void writeJson(String target) {
+        String json = toJson();
+        if ("-".equals(target)) {
+            System.err.println(json);
+            return;
+        }
+        try {
+            Files.writeString(Path.of(target), json + System.lineSeparator());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error: can't write metrics to " + target + " " + e.getMessage());
+        }
+    }
+
+    /** Returns upper bound of latency bucket containing {@code quantile} of files. */
+    private long percentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latency.get(i);
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += latency.get(i);
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    private double mebibytes() {
+        return bytes.sum() / (double) (1 << 20);
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    }
+}
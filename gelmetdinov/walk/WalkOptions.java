@@ -0,0 +1,116 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.util.List;
+
+/**
+ * Command line options of {@link Walk} and {@link RecursiveWalk}.
+ * <p>
+ * Usage: {@code <input> <output> [--threads <n>] [--cache <file>] [--algorithms <name,...>]
+ * [--fork-join [--ordered]] [--columns <size,mtime>] [--dedup] [--progress <seconds>] [--metrics <file|->]
+ * [--tree <chunk size>[K|M|G] [--chunks <file>]]}
+ * <p>
+ * {@code --fork-join} and {@code --dedup} are supported by {@link RecursiveWalk} only;
+ * {@code --dedup} writes groups of duplicate files.
+ */
+class WalkOptions {
+    final String input;
+    final String output;
+    int threads = 1;
+    String cache;
+    List<String> algorithms = List.of("SHA-256");
+    boolean forkJoin;
+    boolean ordered;
+    boolean sizeColumn;
+    boolean mtimeColumn;
+    boolean dedup;
+    int progress;
+    String metrics;
+    long treeChunk;
+    String chunks;
+
+    private WalkOptions(String input, String output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    static WalkOptions parse(String[] args) {
+        if (args == null || args.length < 2 || args[0] == null || args[1] == null) {
+            throw new IllegalArgumentException("expected <input> <output> [options]");
+        }
+        WalkOptions options = new WalkOptions(args[0], args[1]);
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (option == null) {
+                throw new IllegalArgumentException("null option");
+            }
+            switch (option) {
+                case "--threads" -> options.threads = positive(option, value(args, ++i));
+                case "--cache" -> options.cache = value(args, ++i);
+                case "--algorithms" -> options.algorithms = algorithms(value(args, ++i));
+                case "--fork-join" -> options.forkJoin = true;
+                case "--ordered" -> options.ordered = true;
+                case "--dedup" -> options.dedup = true;
+                case "--progress" -> options.progress = positive(option, value(args, ++i));
+                case "--metrics" -> options.metrics = value(args, ++i);
+                case "--tree" -> options.treeChunk = size(option, value(args, ++i));
+                case "--chunks" -> options.chunks = value(args, ++i);
+                case "--columns" -> {
+                    for (String column : value(args, ++i).split(",")) {
+                        switch (column) {
+                            case "size" -> options.sizeColumn = true;
+                            case "mtime" -> options.mtimeColumn = true;
+                            default -> throw new IllegalArgumentException("unknown column " + column);
+                        }
+                    }
+                }
+                default -> throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+        if (options.chunks != null && options.treeChunk == 0) {
+            throw new IllegalArgumentException("--chunks requires --tree");
+        }
+        if (options.ordered && !options.forkJoin) {
+            throw new IllegalArgumentException("--ordered requires --fork-join");
+        }
+        return options;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length || args[i] == null) {
+            throw new IllegalArgumentException("missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static List<String> algorithms(String value) {
+        List<String> algorithms = List.of(value.split(","));
+        DigestEngine.factory(algorithms);
+        return algorithms;
+    }
+
+    private static long size(String option, String value) {
+        int shift = switch (value.isEmpty() ? ' ' : Character.toUpperCase(value.charAt(value.length() - 1))) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        String number = shift == 0 ? value : value.substring(0, value.length() - 1);
+        long result = positive(option, number);
+        if (result > Long.MAX_VALUE >> shift) {
+            throw new IllegalArgumentException(option + " is too large: " + value);
+        }
+        return result << shift;
+    }
+
+    private static int positive(String option, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " expects positive integer, found " + value);
+    }
+}
@@ -0,0 +1,120 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">XXH64</a>
+ * with zero seed. Digest is written in canonical big-endian form, as {@code xxhsum} prints it.
+ */
+class XxHash64 implements Digester {
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final ByteBuffer memory = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+
+    XxHash64() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME_1 + PRIME_2;
+        v2 = PRIME_2;
+        v3 = 0;
+        v4 = -PRIME_1;
+        total = 0;
+        memory.clear();
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        total += buffer.remaining();
+        if (memory.position() > 0) {
+            while (memory.hasRemaining() && buffer.hasRemaining()) {
+                memory.put(buffer.get());
+            }
+            if (memory.hasRemaining()) {
+                buffer.order(order);
+                return;
+            }
+            memory.flip();
+            stripe(memory);
+            memory.clear();
+        }
+        while (buffer.remaining() >= STRIPE) {
+            stripe(buffer);
+        }
+        memory.put(buffer);
+        buffer.order(order);
+    }
+
+    private void stripe(ByteBuffer buffer) {
+        v1 = round(v1, buffer.getLong());
+        v2 = round(v2, buffer.getLong());
+        v3 = round(v3, buffer.getLong());
+        v4 = round(v4, buffer.getLong());
+    }
+
+    @Override
+    public byte[] digest() {
+        long hash;
+        if (total >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME_5;
+        }
+        hash += total;
+
+        memory.flip();
+        while (memory.remaining() >= 8) {
+            hash ^= round(0, memory.getLong());
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        if (memory.remaining() >= 4) {
+            hash ^= (memory.getInt() & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+        }
+        while (memory.hasRemaining()) {
+            hash ^= (memory.get() & 0xFF) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+
+        reset();
+        return ByteBuffer.allocate(Long.BYTES).putLong(hash).array();
+    }
+
+    @Override
+    public int length() {
+        return Long.BYTES;
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME_2, 31) * PRIME_1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+        return (hash ^ round(0, accumulator)) * PRIME_1 + PRIME_4;
+    }
+}
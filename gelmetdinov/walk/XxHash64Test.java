@@ -0,0 +1,74 @@
+package info.kgeorgiy.ja.gelmetdinov.walk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/** Vectors of short inputs are the published reference ones, the rest are computed by an independent implementation. */
+public class XxHash64Test {
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static String hash(byte[] data, int... splits) {
+        XxHash64 digester = new XxHash64();
+        int from = 0;
+        for (int split : splits) {
+            digester.update(ByteBuffer.wrap(data, from, split - from));
+            from = split;
+        }
+        digester.update(ByteBuffer.wrap(data, from, data.length - from));
+        return HexFormat.of().formatHex(digester.digest());
+    }
+
+    private static String hashBy(byte[] data, int chunk) {
+        XxHash64 digester = new XxHash64();
+        for (int from = 0; from < data.length; from += chunk) {
+            digester.update(ByteBuffer.wrap(data, from, Math.min(chunk, data.length - from)));
+        }
+        return HexFormat.of().formatHex(digester.digest());
+    }
+
+    @Test
+    public void test01_referenceVectors() {
+        Assert.assertEquals("ef46db3751d8e999", hash(new byte[0]));
+        Assert.assertEquals("d24ec4f1a98c6e5b", hash("a".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("44bc2cf5ad770999", hash("abc".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("fbcea83c8a378bf1",
+                hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("6ac1e58032166597", hash(bytes(100)));
+    }
+
+    @Test
+    public void test02_splitUpdates() {
+        byte[] data = bytes(100);
+        for (int split = 0; split <= data.length; split++) {
+            Assert.assertEquals("split at " + split, "6ac1e58032166597", hash(data, split));
+        }
+        Assert.assertEquals("6ac1e58032166597", hash(data, 5, 31, 32, 33, 64, 97));
+    }
+
+    @Test
+    public void test03_chunkedUpdates() {
+        byte[] data = bytes(1024);
+        for (int chunk : new int[]{1, 7, 8, 31, 32, 33, 1024}) {
+            Assert.assertEquals("chunk " + chunk, "6f3914f18fe4df57", hashBy(data, chunk));
+        }
+    }
+
+    @Test
+    public void test04_digestResets() {
+        XxHash64 digester = new XxHash64();
+        digester.update(ByteBuffer.wrap(bytes(100)));
+        digester.digest();
+        digester.update(ByteBuffer.wrap("abc".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("44bc2cf5ad770999", HexFormat.of().formatHex(digester.digest()));
+    }
+}